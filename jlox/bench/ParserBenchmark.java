@@ -0,0 +1,45 @@
+package lox;
+
+import java.util.List;
+
+class ParserBenchmark {
+    private static final int WARMUP = 5;
+    private static final int RUNS = 10;
+
+    public static void main(String[] args) {
+        int megabytes = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        List<Token> tokens = new Scanner(generate(megabytes << 20)).scanTokens();
+        List<Stmt> statements = new Parser(tokens).parse();
+        if (Lox.hadError) throw new AssertionError("Generated source does not parse.");
+        System.out.println(String.format("%d MB, %d tokens, %d statements", megabytes, tokens.size(), statements.size()));
+
+        for (int i = 0; i < WARMUP; i++) {
+            new Parser(tokens).parse();
+        }
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < RUNS; i++) {
+            long start = System.nanoTime();
+            new Parser(tokens).parse();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        double millis = best / 1e6;
+        System.out.println(String.format("%-12s %8.1f ms %8.1f Mtokens/s", "parse", millis, tokens.size() / millis / 1000));
+    }
+
+    private static String generate(int size) {
+        StringBuilder source = new StringBuilder(size + 256);
+        int i = 0;
+        while (source.length() < size) {
+            source.append("fun f").append(i).append("(a, b, c) {\n");
+            source.append("    var x = a * ").append(i).append(" + b / (c - 1) % 7;\n");
+            source.append("    var y = x << 2 | b & 255 ^ -a;\n");
+            source.append("    if (x >= 10 and b != nil or !(y < 3)) { x = y = x + 1; }\n");
+            source.append("    var g = fun (p) { return p.q.r(x, y, p ? a : b); };\n");
+            source.append("    while (x > 0) x = x - 1;\n");
+            source.append("    return g(this.value).field + \"s\";\n");
+            source.append("}\n");
+            i++;
+        }
+        return source.toString();
+    }
+}
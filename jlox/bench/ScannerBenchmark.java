@@ -0,0 +1,70 @@
+package lox;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+class ScannerBenchmark {
+    private static final int WARMUP = 5;
+    private static final int RUNS = 10;
+
+    public static void main(String[] args) {
+        int megabytes = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        String source = generate(megabytes << 20);
+        List<Token> expected = new Scanner(source).scanTokens();
+        System.out.println(String.format("%d MB, %d lines, %d tokens", megabytes, expected.get(expected.size() - 1).line, expected.size()));
+
+        double baseline = time(() -> new Scanner(source).scanTokens());
+        System.out.println(String.format("%-12s %8.1f ms %8.1f MB/s", "sequential", baseline, megabytes / baseline * 1000));
+
+        int processors = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; threads <= processors; threads *= 2) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            ParallelScanner scanner = new ParallelScanner(source, pool);
+            verify(expected, scanner.scanTokens());
+            double millis = time(scanner::scanTokens);
+            System.out.println(String.format("%-12s %8.1f ms %8.1f MB/s %6.2fx", threads + " threads", millis, megabytes / millis * 1000, baseline / millis));
+            pool.shutdown();
+        }
+    }
+
+    private static double time(Runnable scan) {
+        for (int i = 0; i < WARMUP; i++) {
+            scan.run();
+        }
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < RUNS; i++) {
+            long start = System.nanoTime();
+            scan.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best / 1e6;
+    }
+
+    private static void verify(List<Token> expected, List<Token> actual) {
+        if (expected.size() != actual.size()) {
+            throw new AssertionError("Expected " + expected.size() + " tokens but got " + actual.size() + ".");
+        }
+        for (int i = 0; i < expected.size(); i++) {
+            Token a = expected.get(i);
+            Token b = actual.get(i);
+            if (a.type != b.type || !a.lexeme.equals(b.lexeme) || a.line != b.line) {
+                throw new AssertionError("Token " + i + " differs: " + a + " [line " + a.line + "] vs " + b + " [line " + b.line + "]");
+            }
+        }
+    }
+
+    private static String generate(int size) {
+        StringBuilder source = new StringBuilder(size + 256);
+        int i = 0;
+        while (source.length() < size) {
+            source.append("fun f").append(i).append("(a, b) {\n");
+            source.append("    var x = a * ").append(i).append(".5 + b; // trailing comment\n");
+            source.append("    /* block comment\n       /* nested */ spanning lines */\n");
+            source.append("    var s = \"string literal\n        spanning lines ").append(i).append("\";\n");
+            source.append("    if (x >= 10 and b != nil) { return x - 1; } else { return s; }\n");
+            source.append("}\n");
+            i++;
+        }
+        return source.toString();
+    }
+}
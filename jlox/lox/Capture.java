@@ -0,0 +1,28 @@
+package lox;
+
+import java.util.Map;
+
+class Capture {
+    private final String[] names;
+    private final int[] distances;
+
+    Capture(Map<String, Integer> variables) {
+        names = new String[variables.size()];
+        distances = new int[names.length];
+        int i = 0;
+        for (Map.Entry<String, Integer> variable : variables.entrySet()) {
+            names[i] = variable.getKey();
+            distances[i++] = variable.getValue();
+        }
+    }
+
+    Environment flatten(Environment environment, Environment globals) {
+        if (names.length == 0) return globals;
+
+        Environment flat = new Environment(globals);
+        for (int i = 0; i < names.length; i++) {
+            flat.capture(names[i], environment.ancestor(distances[i]));
+        }
+        return flat;
+    }
+}
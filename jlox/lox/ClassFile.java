@@ -0,0 +1,432 @@
+package lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+class ClassFile {
+    static final int ACC_PRIVATE = 0x0002;
+    static final int ACC_STATIC = 0x0008;
+    static final int ACC_FINAL = 0x0010;
+    static final int ACC_SUPER = 0x0020;
+
+    static final int ACONST_NULL = 0x01;
+    static final int ICONST_0 = 0x03;
+    static final int ICONST_1 = 0x04;
+    static final int BIPUSH = 0x10;
+    static final int SIPUSH = 0x11;
+    static final int LDC = 0x12;
+    static final int LDC_W = 0x13;
+    static final int LDC2_W = 0x14;
+    static final int ILOAD = 0x15;
+    static final int DLOAD = 0x18;
+    static final int ALOAD = 0x19;
+    static final int AALOAD = 0x32;
+    static final int ISTORE = 0x36;
+    static final int DSTORE = 0x39;
+    static final int ASTORE = 0x3a;
+    static final int AASTORE = 0x53;
+    static final int POP = 0x57;
+    static final int POP2 = 0x58;
+    static final int DUP = 0x59;
+    static final int DUP2 = 0x5c;
+    static final int DADD = 0x63;
+    static final int DSUB = 0x67;
+    static final int DMUL = 0x6b;
+    static final int DNEG = 0x77;
+    static final int IXOR = 0x82;
+    static final int DCMPL = 0x97;
+    static final int DCMPG = 0x98;
+    static final int IFEQ = 0x99;
+    static final int IFNE = 0x9a;
+    static final int IFLT = 0x9b;
+    static final int IFGE = 0x9c;
+    static final int IFGT = 0x9d;
+    static final int IFLE = 0x9e;
+    static final int GOTO = 0xa7;
+    static final int ARETURN = 0xb0;
+    static final int RETURN = 0xb1;
+    static final int GETSTATIC = 0xb2;
+    static final int PUTSTATIC = 0xb3;
+    static final int GETFIELD = 0xb4;
+    static final int INVOKEVIRTUAL = 0xb6;
+    static final int INVOKESPECIAL = 0xb7;
+    static final int INVOKESTATIC = 0xb8;
+    static final int INVOKEINTERFACE = 0xb9;
+    static final int ANEWARRAY = 0xbd;
+    static final int ATHROW = 0xbf;
+    static final int CHECKCAST = 0xc0;
+    static final int INSTANCEOF = 0xc1;
+
+    private static final int VERSION = 49;
+    private static final int MAX_CODE = 32767;
+
+    private final Buffer pool = new Buffer();
+    private final Map<List<Object>, Integer> entries = new HashMap<>();
+    private int poolSize = 1;
+    private final int thisClass;
+    private final int superClass;
+    private final Buffer fields = new Buffer();
+    private int fieldCount = 0;
+    private final List<Code> methods = new ArrayList<>();
+
+    ClassFile(String name, String superName) {
+        this.thisClass = classRef(name);
+        this.superClass = classRef(superName);
+    }
+
+    void field(int access, String name, String descriptor) {
+        fields.u2(access);
+        fields.u2(utf8(name));
+        fields.u2(utf8(descriptor));
+        fields.u2(0);
+        fieldCount++;
+    }
+
+    Code method(int access, String name, String descriptor) {
+        Code code = new Code(access, utf8(name), utf8(descriptor), slots(descriptor) + ((access & ACC_STATIC) == 0 ? 1 : 0));
+        methods.add(code);
+        return code;
+    }
+
+    byte[] toByteArray() {
+        int codeName = utf8("Code");
+        Buffer out = new Buffer();
+        out.u4(0xcafebabe);
+        out.u2(0);
+        out.u2(VERSION);
+        out.u2(poolSize);
+        out.append(pool);
+        out.u2(ACC_FINAL | ACC_SUPER);
+        out.u2(thisClass);
+        out.u2(superClass);
+        out.u2(0);
+        out.u2(fieldCount);
+        out.append(fields);
+        out.u2(methods.size());
+        for (Code method : methods) {
+            method.write(out, codeName);
+        }
+        out.u2(0);
+        return Arrays.copyOf(out.data, out.size);
+    }
+
+    private int utf8(String value) {
+        return entry(List.of(1, value), buffer -> {
+            Buffer text = new Buffer();
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c >= 0x01 && c <= 0x7f) {
+                    text.u1(c);
+                } else if (c <= 0x7ff) {
+                    text.u1(0xc0 | (c >> 6));
+                    text.u1(0x80 | (c & 0x3f));
+                } else {
+                    text.u1(0xe0 | (c >> 12));
+                    text.u1(0x80 | ((c >> 6) & 0x3f));
+                    text.u1(0x80 | (c & 0x3f));
+                }
+            }
+            buffer.u2(text.size);
+            buffer.append(text);
+        }, 1);
+    }
+
+    private int classRef(String name) {
+        int index = utf8(name);
+        return entry(List.of(7, name), buffer -> buffer.u2(index), 1);
+    }
+
+    private int string(String value) {
+        int index = utf8(value);
+        return entry(List.of(8, value), buffer -> buffer.u2(index), 1);
+    }
+
+    private int number(double value) {
+        return entry(List.of(6, Double.doubleToRawLongBits(value)), buffer -> buffer.u8(Double.doubleToRawLongBits(value)), 2);
+    }
+
+    private int member(int tag, String owner, String name, String descriptor) {
+        int ownerIndex = classRef(owner);
+        int nameIndex = utf8(name);
+        int descriptorIndex = utf8(descriptor);
+        int nameAndType = entry(List.of(12, name, descriptor), buffer -> {
+            buffer.u2(nameIndex);
+            buffer.u2(descriptorIndex);
+        }, 1);
+        return entry(List.of(tag, owner, name, descriptor), buffer -> {
+            buffer.u2(ownerIndex);
+            buffer.u2(nameAndType);
+        }, 1);
+    }
+
+    private int entry(List<Object> key, Consumer<Buffer> body, int width) {
+        Integer index = entries.get(key);
+        if (index != null) return index;
+        pool.u1((Integer) key.get(0));
+        body.accept(pool);
+        index = poolSize;
+        poolSize += width;
+        entries.put(key, index);
+        return index;
+    }
+
+    private static int slots(String descriptor) {
+        int slots = 0;
+        int i = 1;
+        while (descriptor.charAt(i) != ')') {
+            char c = descriptor.charAt(i);
+            slots += c == 'D' || c == 'J' ? 2 : 1;
+            i = skip(descriptor, i);
+        }
+        return slots;
+    }
+
+    private static int returnSlots(String descriptor) {
+        char c = descriptor.charAt(descriptor.indexOf(')') + 1);
+        if (c == 'V') return 0;
+        return c == 'D' || c == 'J' ? 2 : 1;
+    }
+
+    private static int skip(String descriptor, int i) {
+        while (descriptor.charAt(i) == '[') i++;
+        if (descriptor.charAt(i) == 'L') return descriptor.indexOf(';', i) + 1;
+        return i + 1;
+    }
+
+    static class Label {
+        private int position = -1;
+        private int stack = -1;
+        private final List<Integer> jumps = new ArrayList<>();
+    }
+
+    class Code {
+        private final int access;
+        private final int name;
+        private final int descriptor;
+        private final Buffer bytes = new Buffer();
+        private final List<Label[]> handlers = new ArrayList<>();
+        private int stack = 0;
+        private int maxStack = 0;
+        private int maxLocals;
+        private int unresolved = 0;
+        private boolean reachable = true;
+
+        private Code(int access, int name, int descriptor, int maxLocals) {
+            this.access = access;
+            this.name = name;
+            this.descriptor = descriptor;
+            this.maxLocals = maxLocals;
+        }
+
+        void op(int opcode) {
+            bytes.u1(opcode);
+            switch (opcode) {
+                case ACONST_NULL: case ICONST_0: case ICONST_1: case DUP:
+                    grow(1);
+                    break;
+                case DUP2:
+                    grow(2);
+                    break;
+                case POP: case AALOAD: case IXOR:
+                    grow(-1);
+                    break;
+                case POP2: case DADD: case DSUB: case DMUL:
+                    grow(-2);
+                    break;
+                case DCMPL: case DCMPG: case AASTORE:
+                    grow(-3);
+                    break;
+                case DNEG:
+                    break;
+                case ARETURN: case ATHROW:
+                    grow(-1);
+                    reachable = false;
+                    break;
+                case RETURN:
+                    reachable = false;
+                    break;
+                default:
+                    throw new IllegalArgumentException("opcode " + opcode);
+            }
+        }
+
+        void push(int value) {
+            if (value >= -1 && value <= 5) {
+                bytes.u1(ICONST_0 + value);
+            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                bytes.u1(BIPUSH);
+                bytes.u1(value);
+            } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                bytes.u1(SIPUSH);
+                bytes.u2(value);
+            } else {
+                throw new IllegalArgumentException("constant " + value);
+            }
+            grow(1);
+        }
+
+        void push(double value) {
+            bytes.u1(LDC2_W);
+            bytes.u2(number(value));
+            grow(2);
+        }
+
+        void pushString(String value) {
+            constant(string(value));
+        }
+
+        void pushClass(String name) {
+            constant(classRef(name));
+        }
+
+        private void constant(int index) {
+            if (index < 256) {
+                bytes.u1(LDC);
+                bytes.u1(index);
+            } else {
+                bytes.u1(LDC_W);
+                bytes.u2(index);
+            }
+            grow(1);
+        }
+
+        void local(int opcode, int slot) {
+            if (slot > 255) throw new IllegalStateException("too many locals");
+            bytes.u1(opcode);
+            bytes.u1(slot);
+            int width = opcode == DLOAD || opcode == DSTORE ? 2 : 1;
+            grow(opcode == ILOAD || opcode == DLOAD || opcode == ALOAD ? width : -width);
+            maxLocals = Math.max(maxLocals, slot + width);
+        }
+
+        void type(int opcode, String name) {
+            bytes.u1(opcode);
+            bytes.u2(classRef(name));
+        }
+
+        void field(int opcode, String owner, String name, String descriptor) {
+            bytes.u1(opcode);
+            bytes.u2(member(9, owner, name, descriptor));
+            int size = descriptor.equals("D") || descriptor.equals("J") ? 2 : 1;
+            switch (opcode) {
+                case GETSTATIC: grow(size); break;
+                case PUTSTATIC: grow(-size); break;
+                case GETFIELD: grow(size - 1); break;
+                default: throw new IllegalArgumentException("opcode " + opcode);
+            }
+        }
+
+        void invoke(int opcode, String owner, String name, String descriptor) {
+            int arguments = slots(descriptor) + (opcode == INVOKESTATIC ? 0 : 1);
+            bytes.u1(opcode);
+            if (opcode == INVOKEINTERFACE) {
+                bytes.u2(member(11, owner, name, descriptor));
+                bytes.u1(arguments);
+                bytes.u1(0);
+            } else {
+                bytes.u2(member(10, owner, name, descriptor));
+            }
+            grow(returnSlots(descriptor) - arguments);
+        }
+
+        void jump(int opcode, Label target) {
+            grow(opcode == GOTO ? 0 : -1);
+            if (target.stack < 0) target.stack = stack;
+            int position = bytes.size;
+            bytes.u1(opcode);
+            if (target.position >= 0) {
+                bytes.u2(target.position - position);
+            } else {
+                target.jumps.add(position);
+                unresolved++;
+                bytes.u2(0);
+            }
+            if (opcode == GOTO) reachable = false;
+        }
+
+        void mark(Label label) {
+            label.position = bytes.size;
+            for (int jump : label.jumps) {
+                bytes.put2(jump + 1, label.position - jump);
+            }
+            unresolved -= label.jumps.size();
+            label.jumps.clear();
+            if (!reachable && label.stack >= 0) stack = label.stack;
+            if (label.stack < 0) label.stack = stack;
+            reachable = true;
+        }
+
+        void handler(Label start, Label end, Label handler) {
+            handler.stack = 1;
+            handlers.add(new Label[] {start, end, handler});
+        }
+
+        private void grow(int delta) {
+            stack += delta;
+            maxStack = Math.max(maxStack, stack);
+        }
+
+        private void write(Buffer out, int codeName) {
+            if (bytes.size > MAX_CODE) throw new IllegalStateException("method too large");
+            if (unresolved != 0) throw new IllegalStateException("unplaced label");
+
+            out.u2(access);
+            out.u2(name);
+            out.u2(descriptor);
+            out.u2(1);
+            out.u2(codeName);
+            out.u4(12 + bytes.size + handlers.size() * 8);
+            out.u2(maxStack);
+            out.u2(maxLocals);
+            out.u4(bytes.size);
+            out.append(bytes);
+            out.u2(handlers.size());
+            for (Label[] handler : handlers) {
+                out.u2(handler[0].position);
+                out.u2(handler[1].position);
+                out.u2(handler[2].position);
+                out.u2(0);
+            }
+            out.u2(0);
+        }
+
+    }
+
+    private static class Buffer {
+        private byte[] data = new byte[256];
+        private int size = 0;
+
+        void u1(int value) {
+            if (size == data.length) data = Arrays.copyOf(data, size * 2);
+            data[size++] = (byte) value;
+        }
+
+        void u2(int value) {
+            u1(value >> 8);
+            u1(value);
+        }
+
+        void u4(int value) {
+            u2(value >> 16);
+            u2(value);
+        }
+
+        void u8(long value) {
+            u4((int) (value >> 32));
+            u4((int) value);
+        }
+
+        void put2(int position, int value) {
+            data[position] = (byte) (value >> 8);
+            data[position + 1] = (byte) value;
+        }
+
+        void append(Buffer other) {
+            for (int i = 0; i < other.size; i++) u1(other.data[i]);
+        }
+    }
+}
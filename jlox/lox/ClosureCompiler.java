@@ -0,0 +1,812 @@
+package lox;
+
+import java.util.List;
+
+class ClosureCompiler implements Expr.Visitor<ClosureCompiler.Node>, Stmt.Visitor<ClosureCompiler.Exec> {
+    interface Node {
+        Object evaluate(Environment environment);
+    }
+
+    interface Exec {
+        void execute(Environment environment);
+    }
+
+    private static class InlineFrame {
+        Object[] values;
+    }
+
+    private static final int INLINE_LIMIT = 32;
+    private static final Object[] NO_ARGUMENTS = new Object[0];
+
+    private final Interpreter interpreter;
+    boolean fusion = true;
+    boolean inlining = true;
+    private List<Token> inlineParams = null;
+    private InlineFrame inlineFrame = null;
+
+    ClosureCompiler(Interpreter interpreter) {
+        this.interpreter = interpreter;
+    }
+
+    void run(List<Stmt> statements, Environment environment) {
+        compile(statements).execute(environment);
+    }
+
+    void execute(FunctionProfile profile, List<Stmt> body, Environment environment) {
+        Exec code = profile.closure;
+        if (code == null) {
+            code = compile(body);
+            profile.closure = code;
+            interpreter.metrics.increment("closure.functions");
+        }
+        code.execute(environment);
+    }
+
+    Exec compile(List<Stmt> statements) {
+        Exec[] body = new Exec[statements.size()];
+        for (int i = 0; i < body.length; i++) {
+            body[i] = compile(statements.get(i));
+        }
+        if (body.length == 1) return body[0];
+        return environment -> {
+            for (Exec exec : body) {
+                exec.execute(environment);
+            }
+        };
+    }
+
+    Exec compile(Stmt stmt) {
+        return stmt.accept(this);
+    }
+
+    Node compile(Expr expr) {
+        return expr.accept(this);
+    }
+
+    private Exec escape(Stmt stmt) {
+        interpreter.metrics.increment("closure.escapes");
+        return environment -> interpreter.execute(stmt, environment);
+    }
+
+    private Node escape(Expr expr) {
+        interpreter.metrics.increment("closure.escapes");
+        return environment -> interpreter.evaluate(expr, environment);
+    }
+
+    @Override
+    public Exec visitBlockStmt(Stmt.Block stmt) {
+        Exec body = compile(stmt.statements);
+        return environment -> body.execute(new Environment(environment));
+    }
+
+    @Override
+    public Exec visitClassStmt(Stmt.Class stmt) {
+        return escape(stmt);
+    }
+
+    @Override
+    public Exec visitExpressionStmt(Stmt.Expression stmt) {
+        Node expression = compile(stmt.expression);
+        return expression::evaluate;
+    }
+
+    @Override
+    public Exec visitFunctionStmt(Stmt.Function stmt) {
+        String name = stmt.name.lexeme;
+        return environment -> environment.define(name,
+            new LoxFunction(name, stmt.params, stmt.body, interpreter.closureFor(stmt.body, environment), false, stmt.name.line));
+    }
+
+    @Override
+    public Exec visitIfStmt(Stmt.If stmt) {
+        Node condition = compile(stmt.condition);
+        Exec thenBranch = compile(stmt.thenBranch);
+        if (stmt.elseBranch == null) {
+            return environment -> {
+                if (isTruthyCondition(condition.evaluate(environment))) thenBranch.execute(environment);
+            };
+        }
+        Exec elseBranch = compile(stmt.elseBranch);
+        return environment -> {
+            if (isTruthyCondition(condition.evaluate(environment))) {
+                thenBranch.execute(environment);
+            } else {
+                elseBranch.execute(environment);
+            }
+        };
+    }
+
+    @Override
+    public Exec visitPrintStmt(Stmt.Print stmt) {
+        Node expression = compile(stmt.expression);
+        return environment -> System.out.println(expression.evaluate(environment));
+    }
+
+    @Override
+    public Exec visitReturnStmt(Stmt.Return stmt) {
+        if (interpreter.isTailCall(stmt)) {
+            Expr.Call call = (Expr.Call) stmt.value;
+            Node callee = compile(call.callee);
+            Node[] arguments = compileArguments(call);
+            return environment -> {
+                Object function = callee.evaluate(environment);
+                throw new Return(interpreter.tailCall(function, call.paren, evaluate(arguments, environment)));
+            };
+        }
+
+        if (stmt.value == null) {
+            return environment -> {
+                throw new Return(null);
+            };
+        }
+        Node value = compile(stmt.value);
+        return environment -> {
+            throw new Return(value.evaluate(environment));
+        };
+    }
+
+    @Override
+    public Exec visitVarStmt(Stmt.Var stmt) {
+        Boolean keepInitializer = interpreter.deadVar(stmt);
+        if (keepInitializer != null) {
+            if (!keepInitializer) return environment -> {};
+            Node initializer = compile(stmt.initializer);
+            return initializer::evaluate;
+        }
+
+        String name = stmt.name.lexeme;
+        if (stmt.initializer == null) {
+            return environment -> environment.define(name, Environment.UNINITIALIZED);
+        }
+        Node initializer = compile(stmt.initializer);
+        return environment -> environment.define(name, initializer.evaluate(environment));
+    }
+
+    @Override
+    public Exec visitWhileStmt(Stmt.While stmt) {
+        Node condition = compile(stmt.condition);
+        Exec body = compile(stmt.body);
+        if (!interpreter.jit.enabled) {
+            return environment -> {
+                while (isTruthy(condition.evaluate(environment))) {
+                    try {
+                        body.execute(environment);
+                    } catch (BreakException e) {
+                        break;
+                    }
+                }
+            };
+        }
+        LoopProfile loop = interpreter.tiers.profileOf(stmt);
+        TierManager tiers = interpreter.tiers;
+        return environment -> {
+            while (!tiers.enterCompiled(loop, environment) && isTruthy(condition.evaluate(environment))) {
+                try {
+                    body.execute(environment);
+                } catch (BreakException e) {
+                    break;
+                }
+                if (tiers.countBackEdge(loop)) tiers.hotLoop(stmt, loop, environment);
+            }
+        };
+    }
+
+    @Override
+    public Exec visitBreakStmt(Stmt.Break stmt) {
+        return environment -> {
+            throw new BreakException();
+        };
+    }
+
+    @Override
+    public Node visitAssignExpr(Expr.Assign expr) {
+        if (interpreter.isDeadStore(expr)) return compile(expr.value);
+        if (fusion && expr.value instanceof Expr.Binary binary && binary.left instanceof Expr.Variable variable
+                && sameSlot(expr, expr.name, variable, variable.name)) {
+            Node fused = fuseUpdate(expr, binary);
+            if (fused != null) return fused;
+        }
+
+        Node value = compile(expr.value);
+        Token name = expr.name;
+        if (interpreter.isGlobal(expr)) {
+            Environment globals = interpreter.globals;
+            return environment -> {
+                Object result = value.evaluate(environment);
+                globals.assign(name, result);
+                return result;
+            };
+        }
+
+        int distance = interpreter.distanceOf(expr);
+        return environment -> {
+            Object result = value.evaluate(environment);
+            environment.assignAt(distance, name, result);
+            return result;
+        };
+    }
+
+    @Override
+    public Node visitBinaryExpr(Expr.Binary expr) {
+        TypeInference types = interpreter.types;
+        if (types != null && types.isNumber(expr.left) && types.isNumber(expr.right)) {
+            Node typed = numeric(expr);
+            if (typed != null) return typed;
+        }
+        if (fusion && isComparison(expr.operator.type) && expr.left instanceof Expr.Variable variable) {
+            return fuseComparison(expr, variable);
+        }
+
+        Node left = compile(expr.left);
+        Node right = compile(expr.right);
+        Token operator = expr.operator;
+
+        switch (operator.type) {
+            case PLUS:
+                return environment -> Values.add(left.evaluate(environment), right.evaluate(environment), operator);
+            case MINUS:
+                return environment -> {
+                    Object a = left.evaluate(environment);
+                    Object b = right.evaluate(environment);
+                    checkNumberOperands(operator, a, b);
+                    return (double) a - (double) b;
+                };
+            case SLASH:
+                return environment -> {
+                    Object a = left.evaluate(environment);
+                    Object b = right.evaluate(environment);
+                    checkNumberOperands(operator, a, b);
+                    if ((double) b == 0) throw new RuntimeError(operator, "Division by Zero Error!!!");
+                    return (double) a / (double) b;
+                };
+            case STAR:
+                return environment -> {
+                    Object a = left.evaluate(environment);
+                    Object b = right.evaluate(environment);
+                    checkNumberOperands(operator, a, b);
+                    return (double) a * (double) b;
+                };
+            case GREATER:
+                return environment -> {
+                    Object a = left.evaluate(environment);
+                    Object b = right.evaluate(environment);
+                    checkNumberOperands(operator, a, b);
+                    return (double) a > (double) b;
+                };
+            case GREATER_EQUAL:
+                return environment -> {
+                    Object a = left.evaluate(environment);
+                    Object b = right.evaluate(environment);
+                    checkNumberOperands(operator, a, b);
+                    return (double) a >= (double) b;
+                };
+            case LESS:
+                return environment -> {
+                    Object a = left.evaluate(environment);
+                    Object b = right.evaluate(environment);
+                    checkNumberOperands(operator, a, b);
+                    return (double) a < (double) b;
+                };
+            case LESS_EQUAL:
+                return environment -> {
+                    Object a = left.evaluate(environment);
+                    Object b = right.evaluate(environment);
+                    checkNumberOperands(operator, a, b);
+                    return (double) a <= (double) b;
+                };
+            case BANG_EQUAL:
+                return environment -> !Values.isEqual(left.evaluate(environment), right.evaluate(environment));
+            case EQUAL_EQUAL:
+                return environment -> Values.isEqual(left.evaluate(environment), right.evaluate(environment));
+            default:
+                return escape(expr);
+        }
+    }
+
+    @Override
+    public Node visitGroupingExpr(Expr.Grouping expr) {
+        return compile(expr.expression);
+    }
+
+    @Override
+    public Node visitLiteralExpr(Expr.Literal expr) {
+        Object value = expr.value;
+        return environment -> value;
+    }
+
+    @Override
+    public Node visitLogicalExpr(Expr.Logical expr) {
+        Node left = compile(expr.left);
+        Node right = compile(expr.right);
+        if (expr.operator.type == TokenType.OR) {
+            return environment -> {
+                Object value = left.evaluate(environment);
+                if (isTruthy(value)) return value;
+                return right.evaluate(environment);
+            };
+        }
+        return environment -> {
+            Object value = left.evaluate(environment);
+            if (!isTruthy(value)) return value;
+            return right.evaluate(environment);
+        };
+    }
+
+    @Override
+    public Node visitCallExpr(Expr.Call expr) {
+        if (inlining && expr.callee instanceof Expr.Variable variable) {
+            Node inlined = inline(expr, variable);
+            if (inlined != null) return inlined;
+        }
+        if (fusion && expr.callee instanceof Expr.Get get) return fuseInvoke(expr, get);
+        if (expr.callee instanceof Expr.Super superExpr) return callSuper(expr, superExpr);
+
+        return call(compile(expr.callee), compileArguments(expr), expr.paren);
+    }
+
+    private Node call(Node callee, Node[] arguments, Token paren) {
+        switch (arguments.length) {
+            case 0:
+                return environment -> interpreter.call0(callee.evaluate(environment), paren);
+            case 1: {
+                Node first = arguments[0];
+                return environment -> {
+                    Object function = callee.evaluate(environment);
+                    return interpreter.call1(function, paren, first.evaluate(environment));
+                };
+            }
+            case 2: {
+                Node first = arguments[0];
+                Node second = arguments[1];
+                return environment -> {
+                    Object function = callee.evaluate(environment);
+                    Object a = first.evaluate(environment);
+                    return interpreter.call2(function, paren, a, second.evaluate(environment));
+                };
+            }
+            case 3: {
+                Node first = arguments[0];
+                Node second = arguments[1];
+                Node third = arguments[2];
+                return environment -> {
+                    Object function = callee.evaluate(environment);
+                    Object a = first.evaluate(environment);
+                    Object b = second.evaluate(environment);
+                    return interpreter.call3(function, paren, a, b, third.evaluate(environment));
+                };
+            }
+            case 4: {
+                Node first = arguments[0];
+                Node second = arguments[1];
+                Node third = arguments[2];
+                Node fourth = arguments[3];
+                return environment -> {
+                    Object function = callee.evaluate(environment);
+                    Object a = first.evaluate(environment);
+                    Object b = second.evaluate(environment);
+                    Object c = third.evaluate(environment);
+                    return interpreter.call4(function, paren, a, b, c, fourth.evaluate(environment));
+                };
+            }
+            default:
+                return environment -> {
+                    Object function = callee.evaluate(environment);
+                    return interpreter.call(function, paren, evaluate(arguments, environment));
+                };
+        }
+    }
+
+    @Override
+    public Node visitUnaryExpr(Expr.Unary expr) {
+        Node right = compile(expr.right);
+        switch (expr.operator.type) {
+            case MINUS:
+                return environment -> -(double) right.evaluate(environment);
+            case BANG:
+                return environment -> !isTruthy(right.evaluate(environment));
+            default:
+                return escape(expr);
+        }
+    }
+
+    @Override
+    public Node visitTernaryExpr(Expr.Ternary expr) {
+        Node left = compile(expr.left);
+        Node right = compile(expr.right);
+        Node condition = compile(expr.Condition);
+        Token operator = expr.operator;
+        return environment -> {
+            Object a = left.evaluate(environment);
+            Object b = right.evaluate(environment);
+            Object test = condition.evaluate(environment);
+            if (!(test instanceof Boolean)) {
+                throw new RuntimeError(operator, "Condition is not logical operation");
+            }
+            return (Boolean) test ? a : b;
+        };
+    }
+
+    @Override
+    public Node visitVariableExpr(Expr.Variable expr) {
+        if (inlineFrame != null && !interpreter.isGlobal(expr)) {
+            InlineFrame frame = inlineFrame;
+            int slot = parameterSlot(expr.name.lexeme);
+            return environment -> frame.values[slot];
+        }
+        return lookUp(expr.name, expr);
+    }
+
+    @Override
+    public Node visitGetExpr(Expr.Get expr) {
+        Node object = compile(expr.object);
+        Token name = expr.name;
+        return environment -> {
+            Object instance = object.evaluate(environment);
+            if (instance instanceof LoxInstance) return ((LoxInstance) instance).get(name, interpreter);
+            throw new RuntimeError(name, "Only instances have properties.");
+        };
+    }
+
+    @Override
+    public Node visitLambdaExpr(Expr.Lambda expr) {
+        return environment -> new LoxFunction(null, expr.params, expr.body, interpreter.closureFor(expr.body, environment), false, expr.keyword.line);
+    }
+
+    @Override
+    public Node visitSetExpr(Expr.Set expr) {
+        if (fusion && expr.object instanceof Expr.Variable variable && expr.value instanceof Expr.Binary binary
+                && binary.operator.type == TokenType.PLUS && binary.left instanceof Expr.Get get
+                && get.name.lexeme.equals(expr.name.lexeme) && get.object instanceof Expr.Variable target
+                && sameSlot(variable, variable.name, target, target.name)) {
+            return fuseFieldUpdate(expr, variable, binary);
+        }
+
+        Node object = compile(expr.object);
+        Node value = compile(expr.value);
+        Token name = expr.name;
+        return environment -> {
+            Object instance = object.evaluate(environment);
+            if (!(instance instanceof LoxInstance)) {
+                throw new RuntimeError(name, "Only instances have fields.");
+            }
+            Object result = value.evaluate(environment);
+            ((LoxInstance) instance).set(name, result);
+            return result;
+        };
+    }
+
+    @Override
+    public Node visitThisExpr(Expr.This expr) {
+        return lookUp(expr.keyword, expr);
+    }
+
+    @Override
+    public Node visitSuperExpr(Expr.Super expr) {
+        SuperSite site = interpreter.superSite(expr);
+        Token method = expr.method;
+        return environment -> {
+            LoxFunction function = site.lookUp((LoxClass) environment.getAt(site.distance, "super"), method);
+            return function.bind((LoxInstance) environment.getAt(site.thisDistance, "this"));
+        };
+    }
+
+    private Node numeric(Expr.Binary expr) {
+        Token operator = expr.operator;
+        switch (operator.type) {
+            case PLUS: case MINUS: case STAR: case SLASH:
+            case GREATER: case GREATER_EQUAL: case LESS: case LESS_EQUAL:
+                break;
+            default:
+                return null;
+        }
+
+        interpreter.metrics.increment("types.fast-paths");
+        Node left = compile(expr.left);
+        Node right = compile(expr.right);
+        switch (operator.type) {
+            case PLUS:
+                return environment -> (double) left.evaluate(environment) + (double) right.evaluate(environment);
+            case MINUS:
+                return environment -> (double) left.evaluate(environment) - (double) right.evaluate(environment);
+            case STAR:
+                return environment -> (double) left.evaluate(environment) * (double) right.evaluate(environment);
+            case SLASH:
+                return environment -> {
+                    double a = (double) left.evaluate(environment);
+                    double b = (double) right.evaluate(environment);
+                    if (b == 0) throw new RuntimeError(operator, "Division by Zero Error!!!");
+                    return a / b;
+                };
+            case GREATER:
+                return environment -> (double) left.evaluate(environment) > (double) right.evaluate(environment);
+            case GREATER_EQUAL:
+                return environment -> (double) left.evaluate(environment) >= (double) right.evaluate(environment);
+            case LESS:
+                return environment -> (double) left.evaluate(environment) < (double) right.evaluate(environment);
+            default:
+                return environment -> (double) left.evaluate(environment) <= (double) right.evaluate(environment);
+        }
+    }
+
+    private Node fuseUpdate(Expr.Assign expr, Expr.Binary binary) {
+        Token operator = binary.operator;
+        if (operator.type != TokenType.PLUS && operator.type != TokenType.MINUS) return null;
+
+        interpreter.metrics.increment("fusion.update");
+        Node right = compile(binary.right);
+        Token name = expr.name;
+        int distance = slotOf(expr);
+        if (operator.type == TokenType.PLUS) {
+            return environment -> {
+                Object a = read(environment, distance, name);
+                Object b = right.evaluate(environment);
+                Object result = Values.add(a, b, operator);
+                write(environment, distance, name, result);
+                return result;
+            };
+        }
+        return environment -> {
+            Object a = read(environment, distance, name);
+            Object b = right.evaluate(environment);
+            checkNumberOperands(operator, a, b);
+            Object result = (double) a - (double) b;
+            write(environment, distance, name, result);
+            return result;
+        };
+    }
+
+    private Node fuseComparison(Expr.Binary expr, Expr.Variable variable) {
+        Token operator = expr.operator;
+        Token name = variable.name;
+        int distance = slotOf(variable);
+
+        if (expr.right instanceof Expr.Literal literal && literal.value instanceof Double constant) {
+            interpreter.metrics.increment("fusion.compare-constant");
+            double b = constant;
+            return environment -> {
+                Object a = read(environment, distance, name);
+                if (!(a instanceof Double)) throw new RuntimeError(operator, "Operands must be numbers.");
+                return compare(operator.type, (double) a, b);
+            };
+        }
+
+        interpreter.metrics.increment("fusion.compare");
+        Node right = compile(expr.right);
+        return environment -> {
+            Object a = read(environment, distance, name);
+            Object b = right.evaluate(environment);
+            checkNumberOperands(operator, a, b);
+            return compare(operator.type, (double) a, (double) b);
+        };
+    }
+
+    private Node fuseFieldUpdate(Expr.Set expr, Expr.Variable variable, Expr.Binary binary) {
+        interpreter.metrics.increment("fusion.field-update");
+        Node right = compile(binary.right);
+        Token name = expr.name;
+        Token target = variable.name;
+        Token operator = binary.operator;
+        int distance = slotOf(variable);
+        return environment -> {
+            Object instance = read(environment, distance, target);
+            if (!(instance instanceof LoxInstance)) {
+                throw new RuntimeError(name, "Only instances have fields.");
+            }
+            Object a = ((LoxInstance) instance).get(name, interpreter);
+            Object b = right.evaluate(environment);
+            Object result = Values.add(a, b, operator);
+            ((LoxInstance) instance).set(name, result);
+            return result;
+        };
+    }
+
+    private Node fuseInvoke(Expr.Call expr, Expr.Get get) {
+        interpreter.metrics.increment("fusion.invoke");
+        Node object = compile(get.object);
+        Token name = get.name;
+        String method = name.lexeme;
+        Node[] arguments = compileArguments(expr);
+        Token paren = expr.paren;
+        return environment -> {
+            Object instance = object.evaluate(environment);
+            if (!(instance instanceof LoxInstance receiver)) {
+                throw new RuntimeError(name, "Only instances have properties.");
+            }
+            LoxFunction function = findMethod(receiver, method);
+            if (function == null) {
+                Object callee = receiver.get(name, interpreter);
+                return interpreter.call(callee, paren, evaluate(arguments, environment));
+            }
+            return interpreter.callMethod(function, receiver, paren, evaluate(arguments, environment));
+        };
+    }
+
+    private static LoxFunction findMethod(LoxInstance receiver, String name) {
+        if (receiver instanceof LoxClass || receiver.fields.containsKey(name)) return null;
+        LoxClass klass = receiver.clas;
+        if (klass.findGetter(name) != null) return null;
+        return klass.findMethod(name);
+    }
+
+    private Node callSuper(Expr.Call expr, Expr.Super superExpr) {
+        SuperSite site = interpreter.superSite(superExpr);
+        Token method = superExpr.method;
+        Node[] arguments = compileArguments(expr);
+        Token paren = expr.paren;
+        return environment -> {
+            LoxFunction function = site.lookUp((LoxClass) environment.getAt(site.distance, "super"), method);
+            LoxInstance receiver = (LoxInstance) environment.getAt(site.thisDistance, "this");
+            return interpreter.callMethod(function, receiver, paren, evaluate(arguments, environment));
+        };
+    }
+
+    private Node inline(Expr.Call expr, Expr.Variable callee) {
+        if (!interpreter.isGlobal(callee) || interpreter.profiler != null || inlineFrame != null) return null;
+        if (!(interpreter.globals.declarationOf(callee.name.lexeme) instanceof Stmt.Function function)) return null;
+        if (LazyBody.isUnparsed(function.body)) return null;
+        if (function.params.size() != expr.arguments.size() || function.body.size() != 1) return null;
+        if (!(function.body.get(0) instanceof Stmt.Return returnStmt) || returnStmt.value == null) return null;
+        if (inlineable(returnStmt.value) > INLINE_LIMIT) return null;
+
+        Node[] arguments = compileArguments(expr);
+        InlineFrame frame = new InlineFrame();
+        boolean outerFusion = fusion;
+        fusion = false;
+        inlineParams = function.params;
+        inlineFrame = frame;
+        Node body;
+        try {
+            body = compile(returnStmt.value);
+        } finally {
+            fusion = outerFusion;
+            inlineParams = null;
+            inlineFrame = null;
+        }
+        interpreter.metrics.increment("inline." + function.name.lexeme);
+
+        ConstantBinding binding = new ConstantBinding(interpreter.globals, callee.name);
+        List<Stmt> declaration = function.body;
+        Token paren = expr.paren;
+        return environment -> {
+            Object target = binding.get();
+            if (!(target instanceof LoxFunction called) || !called.isDeclaredBy(declaration)) {
+                interpreter.metrics.increment("inline.guard-failures");
+                return interpreter.call(target, paren, evaluate(arguments, environment));
+            }
+            Object[] values = new Object[arguments.length];
+            for (int i = 0; i < values.length; i++) {
+                Object value = arguments[i].evaluate(environment);
+                values[i] = value == null ? Environment.UNINITIALIZED : value;
+            }
+            frame.values = values;
+            return body.evaluate(environment);
+        };
+    }
+
+    private int inlineable(Expr expr) {
+        if (expr instanceof Expr.Literal) return 1;
+        if (expr instanceof Expr.Variable variable) {
+            if (interpreter.isGlobal(variable) || interpreter.distanceOf(variable) == 0) return 1;
+            return INLINE_LIMIT + 1;
+        }
+        if (expr instanceof Expr.Grouping grouping) return inlineable(grouping.expression);
+        if (expr instanceof Expr.Unary unary) {
+            TokenType type = unary.operator.type;
+            if (type != TokenType.MINUS && type != TokenType.BANG) return INLINE_LIMIT + 1;
+            return 1 + inlineable(unary.right);
+        }
+        if (expr instanceof Expr.Binary binary) {
+            switch (binary.operator.type) {
+                case PLUS: case MINUS: case STAR: case SLASH:
+                case GREATER: case GREATER_EQUAL: case LESS: case LESS_EQUAL:
+                case BANG_EQUAL: case EQUAL_EQUAL:
+                    return 1 + inlineable(binary.left) + inlineable(binary.right);
+                default:
+                    return INLINE_LIMIT + 1;
+            }
+        }
+        if (expr instanceof Expr.Logical logical) return 1 + inlineable(logical.left) + inlineable(logical.right);
+        if (expr instanceof Expr.Ternary ternary) {
+            return 1 + inlineable(ternary.Condition) + inlineable(ternary.left) + inlineable(ternary.right);
+        }
+        return INLINE_LIMIT + 1;
+    }
+
+    private int parameterSlot(String name) {
+        for (int i = 0; i < inlineParams.size(); i++) {
+            if (inlineParams.get(i).lexeme.equals(name)) return i;
+        }
+        throw new IllegalStateException(name);
+    }
+
+    private boolean sameSlot(Expr a, Token aName, Expr b, Token bName) {
+        if (!aName.lexeme.equals(bName.lexeme)) return false;
+        return slotOf(a) == slotOf(b);
+    }
+
+    private int slotOf(Expr expr) {
+        return interpreter.isGlobal(expr) ? -1 : interpreter.distanceOf(expr);
+    }
+
+    private Object read(Environment environment, int distance, Token name) {
+        if (distance < 0) return interpreter.globals.get(name);
+        return environment.getAt(distance, name.lexeme);
+    }
+
+    private void write(Environment environment, int distance, Token name, Object value) {
+        if (distance < 0) {
+            interpreter.globals.assign(name, value);
+        } else {
+            environment.assignAt(distance, name, value);
+        }
+    }
+
+    private static boolean isComparison(TokenType type) {
+        return type == TokenType.LESS || type == TokenType.LESS_EQUAL
+            || type == TokenType.GREATER || type == TokenType.GREATER_EQUAL;
+    }
+
+    private static boolean compare(TokenType type, double a, double b) {
+        switch (type) {
+            case LESS: return a < b;
+            case LESS_EQUAL: return a <= b;
+            case GREATER: return a > b;
+            default: return a >= b;
+        }
+    }
+
+    private Node lookUp(Token name, Expr expr) {
+        if (interpreter.isGlobal(expr)) {
+            GlobalEnvironment globals = interpreter.globals;
+            if (globals.isConstant(name.lexeme)) {
+                ConstantBinding binding = new ConstantBinding(globals, name);
+                return environment -> binding.get();
+            }
+            return environment -> globals.get(name);
+        }
+
+        int distance = interpreter.distanceOf(expr);
+        String lexeme = name.lexeme;
+        switch (distance) {
+            case 0:
+                return environment -> environment.get(lexeme);
+            case 1:
+                return environment -> environment.enclosing.get(lexeme);
+            default:
+                return environment -> environment.getAt(distance, lexeme);
+        }
+    }
+
+    private Node[] compileArguments(Expr.Call call) {
+        Node[] arguments = new Node[call.arguments.size()];
+        for (int i = 0; i < arguments.length; i++) {
+            arguments[i] = compile(call.arguments.get(i));
+        }
+        return arguments;
+    }
+
+    private static Object[] evaluate(Node[] arguments, Environment environment) {
+        if (arguments.length == 0) return NO_ARGUMENTS;
+        Object[] values = new Object[arguments.length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = arguments[i].evaluate(environment);
+        }
+        return values;
+    }
+
+    private static boolean isTruthy(Object object) {
+        if (object == null) return false;
+        if (object instanceof Boolean) return (boolean) object;
+        return true;
+    }
+
+    private static boolean isTruthyCondition(Object object) {
+        if (object instanceof Boolean) return (boolean) object;
+        return true;
+    }
+
+    private static void checkNumberOperands(Token operator, Object left, Object right) {
+        if (left instanceof Double && right instanceof Double) return;
+        throw new RuntimeError(operator, "Operands must be numbers.");
+    }
+}
@@ -0,0 +1,138 @@
+package lox;
+
+import java.util.List;
+
+abstract class CompiledFunction {
+    static final Object DEOPT = new Object();
+
+    protected final Interpreter interpreter;
+    protected final Token[] tokens;
+    protected final Object[] values;
+
+    protected CompiledFunction(Interpreter interpreter, Token[] tokens, Object[] values) {
+        this.interpreter = interpreter;
+        this.tokens = tokens;
+        this.values = values;
+    }
+
+    final Object invoke(List<Object> arguments) {
+        try {
+            return run(arguments);
+        } catch (RuntimeException | Error error) {
+            throw error;
+        } catch (Throwable error) {
+            throw new IllegalStateException(error);
+        }
+    }
+
+    abstract Object run(List<Object> arguments) throws Throwable;
+
+    protected final Object global(Token name) {
+        return interpreter.globals.get(name);
+    }
+
+    protected final Object constant(int index) {
+        return ((ConstantBinding) values[index]).get();
+    }
+
+    protected final Object assignGlobal(Token name, Object value) {
+        interpreter.globals.assign(name, value);
+        return value;
+    }
+
+    protected static Object local(Environment environment, int distance, Token name) {
+        return environment.getAt(distance, name.lexeme);
+    }
+
+    protected static Object assignLocal(Environment environment, int distance, Token name, Object value) {
+        environment.assignAt(distance, name, value);
+        return value;
+    }
+
+    protected final Object tailCall(Object callee, Token paren, Object... arguments) {
+        return interpreter.tailCall(callee, paren, arguments);
+    }
+
+    protected static Object define(Object value) {
+        return value == null ? Environment.UNINITIALIZED : value;
+    }
+
+    protected static boolean truthy(Object value) {
+        if (value == null) return false;
+        if (value instanceof Boolean) return (boolean) value;
+        return true;
+    }
+
+    protected static boolean ifTruthy(Object value) {
+        if (value instanceof Boolean) return (boolean) value;
+        return true;
+    }
+
+    protected static boolean same(double left, double right) {
+        return Double.doubleToLongBits(left) == Double.doubleToLongBits(right);
+    }
+
+    protected static boolean same(Object left, Object right) {
+        return Values.isEqual(left, right);
+    }
+
+    protected static Object add(Object left, Object right, Token operator) {
+        return Values.add(left, right, operator);
+    }
+
+    protected static double subtract(Object left, Object right, Token operator) {
+        checkNumbers(left, right, operator);
+        return (double) left - (double) right;
+    }
+
+    protected static double multiply(Object left, Object right, Token operator) {
+        checkNumbers(left, right, operator);
+        return (double) left * (double) right;
+    }
+
+    protected static double divide(Object left, Object right, Token operator) {
+        checkNumbers(left, right, operator);
+        return divide((double) left, (double) right, operator);
+    }
+
+    protected static double divide(double left, double right, Token operator) {
+        if (right == 0) throw new RuntimeError(operator, "Division by Zero Error!!!");
+        return left / right;
+    }
+
+    protected static boolean greater(Object left, Object right, Token operator) {
+        checkNumbers(left, right, operator);
+        return (double) left > (double) right;
+    }
+
+    protected static boolean greaterEqual(Object left, Object right, Token operator) {
+        checkNumbers(left, right, operator);
+        return (double) left >= (double) right;
+    }
+
+    protected static boolean less(Object left, Object right, Token operator) {
+        checkNumbers(left, right, operator);
+        return (double) left < (double) right;
+    }
+
+    protected static boolean lessEqual(Object left, Object right, Token operator) {
+        checkNumbers(left, right, operator);
+        return (double) left <= (double) right;
+    }
+
+    protected static double select(double left, double right, boolean condition) {
+        return condition ? left : right;
+    }
+
+    protected static Object select(Object left, Object right, Object condition, Token operator) {
+        if (!(condition instanceof Boolean)) {
+            throw new RuntimeError(operator, "Condition is not logical operation");
+        }
+        return (boolean) condition ? left : right;
+    }
+
+    private static void checkNumbers(Object left, Object right, Token operator) {
+        if (left instanceof Double && right instanceof Double) return;
+        throw new RuntimeError(operator, "Operands must be numbers.");
+    }
+}
@@ -0,0 +1,45 @@
+package lox;
+
+import java.util.Arrays;
+import java.util.List;
+
+class CompiledLoop {
+    private final CompiledFunction code;
+    private final Token[] names;
+    private final int[] distances;
+
+    CompiledLoop(CompiledFunction code, Token[] names, int[] distances) {
+        this.code = code;
+        this.names = names;
+        this.distances = distances;
+    }
+
+    Object run(Interpreter interpreter, Environment environment) {
+        Object[] slots = new Object[names.length + 1];
+        slots[0] = environment;
+        for (int i = 0; i < names.length; i++) {
+            if (distances[i] >= 0) {
+                slots[i + 1] = environment.getAt(distances[i], names[i].lexeme);
+                continue;
+            }
+            try {
+                slots[i + 1] = interpreter.globals.get(names[i]);
+            } catch (RuntimeError error) {
+                return CompiledFunction.DEOPT;
+            }
+        }
+
+        List<Object> arguments = Arrays.asList(slots);
+        try {
+            return code.invoke(arguments);
+        } finally {
+            for (int i = 0; i < names.length; i++) {
+                if (distances[i] >= 0) {
+                    environment.assignAt(distances[i], names[i], arguments.get(i + 1));
+                } else {
+                    interpreter.globals.assign(names[i], arguments.get(i + 1));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package lox;
+
+final class ConstantBinding {
+    private final GlobalEnvironment globals;
+    private final Token name;
+    private Object value;
+    private int version = -1;
+
+    ConstantBinding(GlobalEnvironment globals, Token name) {
+        this.globals = globals;
+        this.name = name;
+    }
+
+    Object get() {
+        if (version == globals.version) return value;
+        value = globals.get(name);
+        version = globals.version;
+        return value;
+    }
+}
@@ -0,0 +1,8 @@
+package lox;
+
+class CoreModule {
+    @Native
+    static double clock() {
+        return (double)System.currentTimeMillis() / 1000.0;
+    }
+}
@@ -11,6 +11,14 @@ public class Environment {
         }
     };
 
+    private static final class Cell {
+        Object value;
+
+        Cell(Object value) {
+            this.value = value;
+        }
+    }
+
     final Environment enclosing;
     private final Map<String, Object> values = new HashMap<>();
 
@@ -23,12 +31,30 @@ public class Environment {
     }
 
     void define(String name, Object value) {
-        values.put(name, value == null ? UNINITIALIZED : value);
+        if (value == null) value = UNINITIALIZED;
+        Object existing = values.get(name);
+        if (existing instanceof Cell) {
+            ((Cell) existing).value = value;
+        } else {
+            values.put(name, value);
+        }
+    }
+
+    void capture(String name, Environment source) {
+        values.put(name, source.box(name));
+    }
+
+    private Cell box(String name) {
+        Object value = values.get(name);
+        if (value instanceof Cell) return (Cell) value;
+        Cell cell = new Cell(value);
+        values.put(name, cell);
+        return cell;
     }
 
     Object get(Token name) {
         if (values.containsKey(name.lexeme)) {
-            Object value = values.get(name.lexeme);
+            Object value = unbox(values.get(name.lexeme));
             if (value == UNINITIALIZED) {
                 throw new RuntimeError(name, "Variable '" + name.lexeme + "' is not initialized.");
             }
@@ -41,16 +67,16 @@ public class Environment {
     }
 
     Object get(String name) {
-        return values.get(name);
+        return unbox(values.get(name));
     }
 
     Object getAt(int distance, String name) {
-        return ancestor(distance).values.get(name);
+        return unbox(ancestor(distance).values.get(name));
     }
 
     void assign(Token name, Object value) {
         if (values.containsKey(name.lexeme)) {
-            values.put(name.lexeme, value);
+            put(name.lexeme, value);
             return;
         }
 
@@ -63,7 +89,20 @@ public class Environment {
     }
 
     void assignAt(Integer distance, Token name, Object value) {
-        ancestor(distance).values.put(name.lexeme, value);
+        ancestor(distance).put(name.lexeme, value);
+    }
+
+    private void put(String name, Object value) {
+        Object existing = values.get(name);
+        if (existing instanceof Cell) {
+            ((Cell) existing).value = value;
+        } else {
+            values.put(name, value);
+        }
+    }
+
+    private static Object unbox(Object value) {
+        return value instanceof Cell ? ((Cell) value).value : value;
     }
 
     Environment ancestor(int distance) {
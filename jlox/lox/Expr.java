@@ -164,7 +164,8 @@ abstract class Expr {
         final Token name;
     }
     static class Lambda extends Expr {
-        Lambda(List<Token> params, List<Stmt> body) {
+        Lambda(Token keyword, List<Token> params, List<Stmt> body) {
+            this.keyword = keyword;
             this.params = params;
             this.body = body;
         }
@@ -174,6 +175,7 @@ abstract class Expr {
             return visitor.visitLambdaExpr(this);
         }
 
+        final Token keyword;
         final List<Token> params;
         final List<Stmt> body;
     }
@@ -0,0 +1,421 @@
+package lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+class FlatAst {
+    static final byte SEQUENCE = 0;
+    static final byte BLOCK = 1;
+    static final byte EXPRESSION = 2;
+    static final byte PRINT = 3;
+    static final byte VAR = 4;
+    static final byte NOTHING = 5;
+    static final byte IF = 6;
+    static final byte WHILE = 7;
+    static final byte BREAK = 8;
+    static final byte RETURN = 9;
+    static final byte FUNCTION = 10;
+    static final byte LITERAL = 11;
+    static final byte LOCAL = 12;
+    static final byte GLOBAL = 13;
+    static final byte ASSIGN_LOCAL = 14;
+    static final byte ASSIGN_GLOBAL = 15;
+    static final byte ADD = 16;
+    static final byte SUBTRACT = 17;
+    static final byte DIVIDE = 18;
+    static final byte MULTIPLY = 19;
+    static final byte GREATER = 20;
+    static final byte GREATER_EQUAL = 21;
+    static final byte LESS = 22;
+    static final byte LESS_EQUAL = 23;
+    static final byte NOT_EQUAL = 24;
+    static final byte EQUAL = 25;
+    static final byte BITWISE_AND = 26;
+    static final byte BITWISE_OR = 27;
+    static final byte BITWISE_XOR = 28;
+    static final byte LEFT_SHIFT = 29;
+    static final byte RIGHT_SHIFT = 30;
+    static final byte AND = 31;
+    static final byte OR = 32;
+    static final byte NEGATE = 33;
+    static final byte NOT = 34;
+    static final byte TERNARY = 35;
+    static final byte CALL = 36;
+    static final byte GET = 37;
+    static final byte SET = 38;
+    static final byte LAMBDA = 39;
+    static final byte CLASS = 40;
+    static final byte SUPER = 41;
+    static final byte SUPER_CALL = 42;
+    static final byte TAIL_CALL = 43;
+    static final byte MODULO = 44;
+    static final byte COMMA = 45;
+
+    static final class Function {
+        final String name;
+        final String qualifiedName;
+        final String[] parameters;
+        final int body;
+        final Capture capture;
+        final boolean isInitializer;
+        final int line;
+        FlatAst ast;
+
+        Function(String name, String qualifiedName, String[] parameters, int body, Capture capture, boolean isInitializer, int line) {
+            this.name = name;
+            this.qualifiedName = qualifiedName;
+            this.parameters = parameters;
+            this.body = body;
+            this.capture = capture;
+            this.isInitializer = isInitializer;
+            this.line = line;
+        }
+    }
+
+    static final class Class {
+        final Token name;
+        final Token superclass;
+        final Function[] methods;
+        final Function[] staticMethods;
+        final Function[] getters;
+        final Function[] staticGetters;
+
+        Class(Token name, Token superclass, Function[] methods, Function[] staticMethods, Function[] getters, Function[] staticGetters) {
+            this.name = name;
+            this.superclass = superclass;
+            this.methods = methods;
+            this.staticMethods = staticMethods;
+            this.getters = getters;
+            this.staticGetters = staticGetters;
+        }
+    }
+
+    final byte[] kinds;
+    final int[] first;
+    final int[] second;
+    final int[] third;
+    final int[] lists;
+    final Object[] constants;
+    final int root;
+
+    private FlatAst(Encoder encoder, int root) {
+        this.kinds = Arrays.copyOf(encoder.kinds, encoder.size);
+        this.first = Arrays.copyOf(encoder.first, encoder.size);
+        this.second = Arrays.copyOf(encoder.second, encoder.size);
+        this.third = Arrays.copyOf(encoder.third, encoder.size);
+        this.lists = Arrays.copyOf(encoder.lists, encoder.listSize);
+        this.constants = Arrays.copyOf(encoder.constants, encoder.constantSize);
+        this.root = root;
+        for (Function function : encoder.functions) {
+            function.ast = this;
+        }
+    }
+
+    static FlatAst encode(Interpreter interpreter, List<Stmt> statements) {
+        Encoder encoder = new Encoder(interpreter);
+        int root = encoder.sequence(statements);
+        return new FlatAst(encoder, root);
+    }
+
+    int size() {
+        return kinds.length;
+    }
+
+    private static class Encoder implements Expr.Visitor<Integer>, Stmt.Visitor<Integer> {
+        private final Interpreter interpreter;
+        private final Map<Object, Integer> interned = new HashMap<>();
+        private final List<Function> functions = new ArrayList<>();
+        private byte[] kinds = new byte[64];
+        private int[] first = new int[64];
+        private int[] second = new int[64];
+        private int[] third = new int[64];
+        private int size = 0;
+        private int[] lists = new int[64];
+        private int listSize = 0;
+        private Object[] constants = new Object[16];
+        private int constantSize = 0;
+
+        Encoder(Interpreter interpreter) {
+            this.interpreter = interpreter;
+        }
+
+        int sequence(List<Stmt> statements) {
+            return node(SEQUENCE, statements(statements), statements.size(), 0);
+        }
+
+        private int statements(List<Stmt> statements) {
+            int[] nodes = new int[statements.size()];
+            for (int i = 0; i < nodes.length; i++) {
+                nodes[i] = statements.get(i).accept(this);
+            }
+            return list(nodes);
+        }
+
+        private int encode(Expr expr) {
+            return expr.accept(this);
+        }
+
+        private int node(byte kind, int a, int b, int c) {
+            if (size == kinds.length) {
+                int capacity = size * 2;
+                kinds = Arrays.copyOf(kinds, capacity);
+                first = Arrays.copyOf(first, capacity);
+                second = Arrays.copyOf(second, capacity);
+                third = Arrays.copyOf(third, capacity);
+            }
+            kinds[size] = kind;
+            first[size] = a;
+            second[size] = b;
+            third[size] = c;
+            return size++;
+        }
+
+        private int list(int[] nodes) {
+            if (listSize + nodes.length > lists.length) {
+                lists = Arrays.copyOf(lists, Math.max(lists.length * 2, listSize + nodes.length));
+            }
+            int start = listSize;
+            System.arraycopy(nodes, 0, lists, start, nodes.length);
+            listSize += nodes.length;
+            return start;
+        }
+
+        private int constant(Object value) {
+            if (constantSize == constants.length) {
+                constants = Arrays.copyOf(constants, constantSize * 2);
+            }
+            constants[constantSize] = value;
+            return constantSize++;
+        }
+
+        private int intern(Object value) {
+            Integer index = interned.get(value);
+            if (index == null) {
+                index = constant(value);
+                interned.put(value, index);
+            }
+            return index;
+        }
+
+        private int intern(Token token) {
+            Integer index = interned.get(List.of(token.type, token.lexeme, token.line));
+            if (index == null) {
+                index = constant(token);
+                interned.put(List.of(token.type, token.lexeme, token.line), index);
+            }
+            return index;
+        }
+
+        private Function function(String name, String qualifiedName, List<Token> params, List<Stmt> body, boolean isInitializer, int line) {
+            String[] parameters = new String[params.size()];
+            for (int i = 0; i < parameters.length; i++) {
+                parameters[i] = params.get(i).lexeme;
+            }
+            Function function = new Function(name, qualifiedName, parameters, sequence(body), interpreter.captureOf(body), isInitializer, line);
+            functions.add(function);
+            return function;
+        }
+
+        private Function[] methods(Token klass, List<Stmt.Function> declarations, boolean instance) {
+            Function[] methods = new Function[declarations.size()];
+            for (int i = 0; i < methods.length; i++) {
+                Stmt.Function method = declarations.get(i);
+                String name = method.name.lexeme;
+                boolean isInitializer = instance && name.equals("init");
+                methods[i] = function(name, klass.lexeme + "." + name, method.params, method.body, isInitializer, method.name.line);
+            }
+            return methods;
+        }
+
+        private int call(byte kind, Expr.Call expr) {
+            int[] nodes = new int[expr.arguments.size() + 1];
+            nodes[0] = encode(expr.callee);
+            for (int i = 1; i < nodes.length; i++) {
+                nodes[i] = encode(expr.arguments.get(i - 1));
+            }
+            return node(kind, list(nodes), nodes.length - 1, intern(expr.paren));
+        }
+
+        @Override
+        public Integer visitBlockStmt(Stmt.Block stmt) {
+            return node(BLOCK, statements(stmt.statements), stmt.statements.size(), 0);
+        }
+
+        @Override
+        public Integer visitClassStmt(Stmt.Class stmt) {
+            int superclass = stmt.superclass == null ? -1 : encode(stmt.superclass);
+            Class klass = new Class(stmt.name, stmt.superclass == null ? null : stmt.superclass.name,
+                    methods(stmt.name, stmt.methods, true), methods(stmt.name, stmt.staticMethods, false),
+                    methods(stmt.name, stmt.getters, false), methods(stmt.name, stmt.staticGetters, false));
+            return node(CLASS, superclass, constant(klass), 0);
+        }
+
+        @Override
+        public Integer visitExpressionStmt(Stmt.Expression stmt) {
+            return node(EXPRESSION, encode(stmt.expression), 0, 0);
+        }
+
+        @Override
+        public Integer visitFunctionStmt(Stmt.Function stmt) {
+            String name = stmt.name.lexeme;
+            return node(FUNCTION, constant(function(name, name, stmt.params, stmt.body, false, stmt.name.line)), 0, 0);
+        }
+
+        @Override
+        public Integer visitIfStmt(Stmt.If stmt) {
+            int condition = encode(stmt.condition);
+            int thenBranch = stmt.thenBranch.accept(this);
+            int elseBranch = stmt.elseBranch == null ? -1 : stmt.elseBranch.accept(this);
+            return node(IF, condition, thenBranch, elseBranch);
+        }
+
+        @Override
+        public Integer visitPrintStmt(Stmt.Print stmt) {
+            return node(PRINT, encode(stmt.expression), 0, 0);
+        }
+
+        @Override
+        public Integer visitReturnStmt(Stmt.Return stmt) {
+            if (interpreter.isTailCall(stmt)) return node(RETURN, call(TAIL_CALL, (Expr.Call) stmt.value), 0, 0);
+            return node(RETURN, stmt.value == null ? -1 : encode(stmt.value), 0, 0);
+        }
+
+        @Override
+        public Integer visitVarStmt(Stmt.Var stmt) {
+            Boolean keepInitializer = interpreter.deadVar(stmt);
+            if (keepInitializer != null) {
+                if (!keepInitializer) return node(NOTHING, 0, 0, 0);
+                return node(EXPRESSION, encode(stmt.initializer), 0, 0);
+            }
+            int initializer = stmt.initializer == null ? -1 : encode(stmt.initializer);
+            return node(VAR, initializer, intern(stmt.name.lexeme), 0);
+        }
+
+        @Override
+        public Integer visitWhileStmt(Stmt.While stmt) {
+            int condition = encode(stmt.condition);
+            int body = stmt.body.accept(this);
+            return node(WHILE, condition, body, 0);
+        }
+
+        @Override
+        public Integer visitBreakStmt(Stmt.Break stmt) {
+            return node(BREAK, 0, 0, 0);
+        }
+
+        @Override
+        public Integer visitAssignExpr(Expr.Assign expr) {
+            int value = encode(expr.value);
+            if (interpreter.isDeadStore(expr)) return value;
+            if (interpreter.isGlobal(expr)) return node(ASSIGN_GLOBAL, value, intern(expr.name), 0);
+            return node(ASSIGN_LOCAL, value, intern(expr.name), interpreter.distanceOf(expr));
+        }
+
+        @Override
+        public Integer visitBinaryExpr(Expr.Binary expr) {
+            byte kind;
+            switch (expr.operator.type) {
+                case PLUS: kind = ADD; break;
+                case MINUS: kind = SUBTRACT; break;
+                case SLASH: kind = DIVIDE; break;
+                case STAR: kind = MULTIPLY; break;
+                case GREATER: kind = GREATER; break;
+                case GREATER_EQUAL: kind = GREATER_EQUAL; break;
+                case LESS: kind = LESS; break;
+                case LESS_EQUAL: kind = LESS_EQUAL; break;
+                case BANG_EQUAL: kind = NOT_EQUAL; break;
+                case EQUAL_EQUAL: kind = EQUAL; break;
+                case BITWISE_AND: kind = BITWISE_AND; break;
+                case BITWISE_OR: kind = BITWISE_OR; break;
+                case BITWISE_XOR: kind = BITWISE_XOR; break;
+                case LEFT_SHIFT: kind = LEFT_SHIFT; break;
+                case RIGHT_SHIFT: kind = RIGHT_SHIFT; break;
+                case MODULO: kind = MODULO; break;
+                case COMMA: kind = COMMA; break;
+                default: throw new IllegalArgumentException("Unexpected operator " + expr.operator.type + ".");
+            }
+            int left = encode(expr.left);
+            int right = encode(expr.right);
+            return node(kind, left, right, intern(expr.operator));
+        }
+
+        @Override
+        public Integer visitGroupingExpr(Expr.Grouping expr) {
+            return encode(expr.expression);
+        }
+
+        @Override
+        public Integer visitLiteralExpr(Expr.Literal expr) {
+            return node(LITERAL, intern(expr.value), 0, 0);
+        }
+
+        @Override
+        public Integer visitLogicalExpr(Expr.Logical expr) {
+            int left = encode(expr.left);
+            int right = encode(expr.right);
+            return node(expr.operator.type == TokenType.OR ? OR : AND, left, right, 0);
+        }
+
+        @Override
+        public Integer visitCallExpr(Expr.Call expr) {
+            return call(expr.callee instanceof Expr.Super ? SUPER_CALL : CALL, expr);
+        }
+
+        @Override
+        public Integer visitUnaryExpr(Expr.Unary expr) {
+            switch (expr.operator.type) {
+                case MINUS: return node(NEGATE, encode(expr.right), 0, 0);
+                case BANG: return node(NOT, encode(expr.right), 0, 0);
+                default: throw new IllegalArgumentException("Unexpected operator " + expr.operator.type + ".");
+            }
+        }
+
+        @Override
+        public Integer visitTernaryExpr(Expr.Ternary expr) {
+            int left = encode(expr.left);
+            int right = encode(expr.right);
+            int condition = encode(expr.Condition);
+            return node(TERNARY, list(new int[] {left, right, condition}), intern(expr.operator), 0);
+        }
+
+        @Override
+        public Integer visitVariableExpr(Expr.Variable expr) {
+            return variable(expr.name, expr);
+        }
+
+        @Override
+        public Integer visitGetExpr(Expr.Get expr) {
+            return node(GET, encode(expr.object), intern(expr.name), 0);
+        }
+
+        @Override
+        public Integer visitLambdaExpr(Expr.Lambda expr) {
+            return node(LAMBDA, constant(function(null, null, expr.params, expr.body, false, expr.keyword.line)), 0, 0);
+        }
+
+        @Override
+        public Integer visitSetExpr(Expr.Set expr) {
+            int object = encode(expr.object);
+            int value = encode(expr.value);
+            return node(SET, object, intern(expr.name), value);
+        }
+
+        @Override
+        public Integer visitThisExpr(Expr.This expr) {
+            return variable(expr.keyword, expr);
+        }
+
+        @Override
+        public Integer visitSuperExpr(Expr.Super expr) {
+            return node(SUPER, constant(interpreter.superSite(expr)), intern(expr.method), 0);
+        }
+
+        private int variable(Token name, Expr expr) {
+            if (interpreter.isGlobal(expr)) return node(GLOBAL, intern(name), 0, 0);
+            return node(LOCAL, interpreter.distanceOf(expr), intern(name.lexeme), 0);
+        }
+    }
+}
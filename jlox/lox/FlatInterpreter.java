@@ -0,0 +1,390 @@
+package lox;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+class FlatInterpreter {
+    private static final Object NORMAL = new Object();
+    private static final Object BREAK = new Object();
+
+    private final Interpreter interpreter;
+    private final GlobalEnvironment globals;
+
+    FlatInterpreter(Interpreter interpreter) {
+        this.interpreter = interpreter;
+        this.globals = interpreter.globals;
+    }
+
+    FlatAst encode(List<Stmt> statements) {
+        FlatAst ast = FlatAst.encode(interpreter, statements);
+        interpreter.metrics.add("flat.nodes", ast.size());
+        interpreter.releaseTree();
+        return ast;
+    }
+
+    void run(FlatAst ast, Environment environment) {
+        execute(ast, ast.root, environment);
+    }
+
+    Object execute(FlatAst.Function code, Environment environment) {
+        Object result = execute(code.ast, code.body, environment);
+        return result == NORMAL ? null : result;
+    }
+
+    private Object execute(FlatAst ast, int node, Environment environment) {
+        switch (ast.kinds[node]) {
+            case FlatAst.SEQUENCE:
+                return sequence(ast, ast.first[node], ast.second[node], environment);
+            case FlatAst.BLOCK:
+                return sequence(ast, ast.first[node], ast.second[node], new Environment(environment));
+            case FlatAst.EXPRESSION:
+                evaluate(ast, ast.first[node], environment);
+                return NORMAL;
+            case FlatAst.PRINT:
+                System.out.println(evaluate(ast, ast.first[node], environment));
+                return NORMAL;
+            case FlatAst.VAR:
+                declareVariable(ast, node, environment);
+                return NORMAL;
+            case FlatAst.NOTHING:
+                return NORMAL;
+            case FlatAst.IF:
+                if (isTruthyCondition(evaluate(ast, ast.first[node], environment))) {
+                    return execute(ast, ast.second[node], environment);
+                } else if (ast.third[node] >= 0) {
+                    return execute(ast, ast.third[node], environment);
+                }
+                return NORMAL;
+            case FlatAst.WHILE:
+                return loop(ast, node, environment);
+            case FlatAst.BREAK:
+                return BREAK;
+            case FlatAst.RETURN:
+                return ast.first[node] < 0 ? null : evaluate(ast, ast.first[node], environment);
+            case FlatAst.FUNCTION:
+                declareFunction(ast, node, environment);
+                return NORMAL;
+            case FlatAst.CLASS:
+                declareClass(ast, node, environment);
+                return NORMAL;
+            default:
+                evaluate(ast, node, environment);
+                return NORMAL;
+        }
+    }
+
+    private Object sequence(FlatAst ast, int start, int count, Environment environment) {
+        int[] lists = ast.lists;
+        for (int i = start; i < start + count; i++) {
+            Object result = execute(ast, lists[i], environment);
+            if (result != NORMAL) return result;
+        }
+        return NORMAL;
+    }
+
+    private Object loop(FlatAst ast, int node, Environment environment) {
+        int condition = ast.first[node];
+        int body = ast.second[node];
+        while (isTruthy(evaluate(ast, condition, environment))) {
+            Object result = execute(ast, body, environment);
+            if (result == BREAK) break;
+            if (result != NORMAL) return result;
+        }
+        return NORMAL;
+    }
+
+    private void declareVariable(FlatAst ast, int node, Environment environment) {
+        int initializer = ast.first[node];
+        Object value = initializer < 0 ? Environment.UNINITIALIZED : evaluate(ast, initializer, environment);
+        environment.define((String) ast.constants[ast.second[node]], value);
+    }
+
+    private void declareFunction(FlatAst ast, int node, Environment environment) {
+        FlatAst.Function code = (FlatAst.Function) ast.constants[ast.first[node]];
+        environment.define(code.name, function(code, environment));
+    }
+
+    private void declareClass(FlatAst ast, int node, Environment environment) {
+        FlatAst.Class declaration = (FlatAst.Class) ast.constants[ast.second[node]];
+        Object superclass = null;
+        if (ast.first[node] >= 0) {
+            superclass = evaluate(ast, ast.first[node], environment);
+            if (!(superclass instanceof LoxClass)) throw new RuntimeError(declaration.superclass, "Superclass must be a class.");
+        }
+
+        environment.define(declaration.name.lexeme, null);
+
+        Environment scope = environment;
+        if (superclass != null) {
+            scope = new Environment(environment);
+            scope.define("super", superclass);
+        }
+
+        LoxClass klass = new LoxClass(declaration.name.lexeme, (LoxClass) superclass,
+                methods(declaration.methods, scope), methods(declaration.staticMethods, scope),
+                methods(declaration.getters, scope), methods(declaration.staticGetters, scope));
+        environment.assign(declaration.name, klass);
+    }
+
+    private Map<String, LoxFunction> methods(FlatAst.Function[] declarations, Environment environment) {
+        Map<String, LoxFunction> methods = new HashMap<>();
+        for (FlatAst.Function method : declarations) {
+            methods.put(method.name, function(method, environment));
+        }
+        return methods;
+    }
+
+    private LoxFunction function(FlatAst.Function code, Environment environment) {
+        return new LoxFunction(code, interpreter.closureFor(code.capture, environment));
+    }
+
+    private Object evaluate(FlatAst ast, int node, Environment environment) {
+        switch (ast.kinds[node]) {
+            case FlatAst.LITERAL:
+                return ast.constants[ast.first[node]];
+            case FlatAst.LOCAL:
+                return local(ast, node, environment);
+            case FlatAst.GLOBAL:
+                return globals.get((Token) ast.constants[ast.first[node]]);
+            case FlatAst.ASSIGN_LOCAL:
+                return assignLocal(ast, node, environment);
+            case FlatAst.ASSIGN_GLOBAL:
+                return assignGlobal(ast, node, environment);
+            case FlatAst.AND:
+            case FlatAst.OR:
+                return logical(ast, node, environment);
+            case FlatAst.NEGATE:
+                return -(double) evaluate(ast, ast.first[node], environment);
+            case FlatAst.NOT:
+                return !isTruthy(evaluate(ast, ast.first[node], environment));
+            case FlatAst.TERNARY:
+                return ternary(ast, node, environment);
+            case FlatAst.CALL:
+                return call(ast, node, environment);
+            case FlatAst.SUPER_CALL:
+                return superCall(ast, node, environment);
+            case FlatAst.TAIL_CALL:
+                return tailCall(ast, node, environment);
+            case FlatAst.SUPER:
+                return superExpr(ast, node, environment);
+            case FlatAst.GET:
+                return get(ast, node, environment);
+            case FlatAst.SET:
+                return set(ast, node, environment);
+            case FlatAst.LAMBDA:
+                return function((FlatAst.Function) ast.constants[ast.first[node]], environment);
+            default:
+                return binary(ast, node, environment);
+        }
+    }
+
+    private static Object local(FlatAst ast, int node, Environment environment) {
+        String name = (String) ast.constants[ast.second[node]];
+        switch (ast.first[node]) {
+            case 0: return environment.get(name);
+            case 1: return environment.enclosing.get(name);
+            default: return environment.getAt(ast.first[node], name);
+        }
+    }
+
+    private Object assignLocal(FlatAst ast, int node, Environment environment) {
+        Object value = evaluate(ast, ast.first[node], environment);
+        environment.assignAt(ast.third[node], (Token) ast.constants[ast.second[node]], value);
+        return value;
+    }
+
+    private Object assignGlobal(FlatAst ast, int node, Environment environment) {
+        Object value = evaluate(ast, ast.first[node], environment);
+        globals.assign((Token) ast.constants[ast.second[node]], value);
+        return value;
+    }
+
+    private Object logical(FlatAst ast, int node, Environment environment) {
+        Object left = evaluate(ast, ast.first[node], environment);
+        if (ast.kinds[node] == FlatAst.OR ? isTruthy(left) : !isTruthy(left)) return left;
+        return evaluate(ast, ast.second[node], environment);
+    }
+
+    private Object ternary(FlatAst ast, int node, Environment environment) {
+        int start = ast.first[node];
+        Object left = evaluate(ast, ast.lists[start], environment);
+        Object right = evaluate(ast, ast.lists[start + 1], environment);
+        Object condition = evaluate(ast, ast.lists[start + 2], environment);
+        if (!(condition instanceof Boolean)) {
+            throw new RuntimeError((Token) ast.constants[ast.second[node]], "Condition is not logical operation");
+        }
+        return (Boolean) condition ? left : right;
+    }
+
+    private Object get(FlatAst ast, int node, Environment environment) {
+        Object object = evaluate(ast, ast.first[node], environment);
+        Token name = (Token) ast.constants[ast.second[node]];
+        if (object instanceof LoxInstance) return ((LoxInstance) object).get(name, interpreter);
+        throw new RuntimeError(name, "Only instances have properties.");
+    }
+
+    private Object set(FlatAst ast, int node, Environment environment) {
+        Object object = evaluate(ast, ast.first[node], environment);
+        Token name = (Token) ast.constants[ast.second[node]];
+        if (!(object instanceof LoxInstance)) {
+            throw new RuntimeError(name, "Only instances have fields.");
+        }
+        Object value = evaluate(ast, ast.third[node], environment);
+        ((LoxInstance) object).set(name, value);
+        return value;
+    }
+
+    private Object binary(FlatAst ast, int node, Environment environment) {
+        Object left = evaluate(ast, ast.first[node], environment);
+        Object right = evaluate(ast, ast.second[node], environment);
+
+        switch (ast.kinds[node]) {
+            case FlatAst.ADD:
+                return Values.add(left, right, operator(ast, node));
+            case FlatAst.NOT_EQUAL:
+                return !Values.isEqual(left, right);
+            case FlatAst.EQUAL:
+                return Values.isEqual(left, right);
+            case FlatAst.BITWISE_AND:
+            case FlatAst.BITWISE_OR:
+            case FlatAst.BITWISE_XOR:
+            case FlatAst.LEFT_SHIFT:
+            case FlatAst.RIGHT_SHIFT:
+                return bitwise(ast, node, left, right);
+            case FlatAst.MODULO:
+            case FlatAst.COMMA:
+                return null;
+            default:
+                checkNumberOperands(ast, node, left, right);
+                return arithmetic(ast, node, (double) left, (double) right);
+        }
+    }
+
+    private static Object arithmetic(FlatAst ast, int node, double left, double right) {
+        switch (ast.kinds[node]) {
+            case FlatAst.SUBTRACT:
+                return left - right;
+            case FlatAst.DIVIDE:
+                if (right == 0) throw new RuntimeError(operator(ast, node), "Division by Zero Error!!!");
+                return left / right;
+            case FlatAst.MULTIPLY:
+                return left * right;
+            case FlatAst.GREATER:
+                return left > right;
+            case FlatAst.GREATER_EQUAL:
+                return left >= right;
+            case FlatAst.LESS:
+                return left < right;
+            case FlatAst.LESS_EQUAL:
+                return left <= right;
+            default:
+                return null;
+        }
+    }
+
+    private static Object bitwise(FlatAst ast, int node, Object left, Object right) {
+        checkIntegerOperands(ast, node, left, right);
+        switch (ast.kinds[node]) {
+            case FlatAst.BITWISE_AND:
+                return (long) left & (long) right;
+            case FlatAst.BITWISE_OR:
+                return (long) left | (long) right;
+            case FlatAst.BITWISE_XOR:
+                return (long) left ^ (long) right;
+            case FlatAst.LEFT_SHIFT:
+                return (long) left << (long) right;
+            default:
+                return (long) left >> (long) right;
+        }
+    }
+
+    private Object call(FlatAst ast, int node, Environment environment) {
+        int start = ast.first[node];
+        int[] lists = ast.lists;
+        Token paren = (Token) ast.constants[ast.third[node]];
+        Object callee = evaluate(ast, lists[start], environment);
+        switch (ast.second[node]) {
+            case 0:
+                return interpreter.call0(callee, paren);
+            case 1:
+                return interpreter.call1(callee, paren, evaluate(ast, lists[start + 1], environment));
+            case 2: {
+                Object a = evaluate(ast, lists[start + 1], environment);
+                return interpreter.call2(callee, paren, a, evaluate(ast, lists[start + 2], environment));
+            }
+            case 3: {
+                Object a = evaluate(ast, lists[start + 1], environment);
+                Object b = evaluate(ast, lists[start + 2], environment);
+                return interpreter.call3(callee, paren, a, b, evaluate(ast, lists[start + 3], environment));
+            }
+            default:
+                return interpreter.call(callee, paren, arguments(ast, node, environment));
+        }
+    }
+
+    private Object tailCall(FlatAst ast, int node, Environment environment) {
+        Object callee = evaluate(ast, ast.lists[ast.first[node]], environment);
+        return interpreter.tailCall(callee, (Token) ast.constants[ast.third[node]], arguments(ast, node, environment));
+    }
+
+    private Object superExpr(FlatAst ast, int node, Environment environment) {
+        LoxInstance receiver = (LoxInstance) environment.getAt(superSite(ast, node).thisDistance, "this");
+        return superMethod(ast, node, environment).bind(receiver);
+    }
+
+    private Object superCall(FlatAst ast, int node, Environment environment) {
+        int target = ast.lists[ast.first[node]];
+        LoxFunction method = superMethod(ast, target, environment);
+        LoxInstance receiver = (LoxInstance) environment.getAt(superSite(ast, target).thisDistance, "this");
+        return interpreter.callMethod(method, receiver, (Token) ast.constants[ast.third[node]], arguments(ast, node, environment));
+    }
+
+    private LoxFunction superMethod(FlatAst ast, int node, Environment environment) {
+        SuperSite site = superSite(ast, node);
+        return site.lookUp((LoxClass) environment.getAt(site.distance, "super"), (Token) ast.constants[ast.second[node]]);
+    }
+
+    private static SuperSite superSite(FlatAst ast, int node) {
+        return (SuperSite) ast.constants[ast.first[node]];
+    }
+
+    private Object[] arguments(FlatAst ast, int node, Environment environment) {
+        int start = ast.first[node];
+        int count = ast.second[node];
+        Object[] arguments = new Object[count];
+        for (int i = 0; i < count; i++) {
+            arguments[i] = evaluate(ast, ast.lists[start + 1 + i], environment);
+        }
+        return arguments;
+    }
+
+    private static Token operator(FlatAst ast, int node) {
+        return (Token) ast.constants[ast.third[node]];
+    }
+
+    private static void checkNumberOperands(FlatAst ast, int node, Object left, Object right) {
+        if (left instanceof Double && right instanceof Double) return;
+        throw new RuntimeError(operator(ast, node), "Operands must be numbers.");
+    }
+
+    private static void checkIntegerOperands(FlatAst ast, int node, Object left, Object right) {
+        if (left instanceof Double && right instanceof Double) {
+            if (((Double) left).longValue() == (double) left && ((Double) right).longValue() == (double) right) {
+                return;
+            }
+        }
+        throw new RuntimeError(operator(ast, node), "Operands must be integers.");
+    }
+
+    private static boolean isTruthy(Object object) {
+        if (object == null) return false;
+        if (object instanceof Boolean) return (boolean) object;
+        return true;
+    }
+
+    private static boolean isTruthyCondition(Object object) {
+        if (object instanceof Boolean) return (boolean) object;
+        return true;
+    }
+}
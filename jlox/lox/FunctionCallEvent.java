@@ -0,0 +1,21 @@
+package lox;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+@Name("lox.FunctionCall")
+@Label("Lox Function Call")
+@Category("Lox")
+@StackTrace(false)
+@Threshold("1 ms")
+class FunctionCallEvent extends Event {
+    @Label("Function")
+    String function;
+
+    @Label("Line")
+    int line;
+}
@@ -0,0 +1,10 @@
+package lox;
+
+class FunctionProfile {
+    int calls = 0;
+    int deopts = 0;
+    int recompiles = 0;
+    boolean queued = false;
+    volatile CompiledFunction compiled = null;
+    ClosureCompiler.Exec closure = null;
+}
@@ -0,0 +1,37 @@
+package lox;
+
+import java.util.HashMap;
+import java.util.Map;
+
+class GlobalEnvironment extends Environment {
+    private final Map<String, Stmt> constants = new HashMap<>();
+    int version = 0;
+
+    void markConstant(String name, Stmt declaration) {
+        constants.put(name, declaration);
+    }
+
+    boolean isConstant(String name) {
+        return constants.containsKey(name);
+    }
+
+    Stmt declarationOf(String name) {
+        return constants.get(name);
+    }
+
+    void releaseDeclarations() {
+        constants.replaceAll((name, declaration) -> null);
+    }
+
+    @Override
+    void define(String name, Object value) {
+        if (constants.containsKey(name)) version++;
+        super.define(name, value);
+    }
+
+    @Override
+    void assign(Token name, Object value) {
+        if (constants.containsKey(name.lexeme)) version++;
+        super.assign(name, value);
+    }
+}
@@ -0,0 +1,18 @@
+package lox;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+@Name("lox.InstanceCreation")
+@Label("Lox Instance Creation")
+@Category("Lox")
+@StackTrace(false)
+@Threshold("1 ms")
+class InstanceCreationEvent extends Event {
+    @Label("Class")
+    String className;
+}
@@ -2,37 +2,40 @@ package lox;
 
 import java.util.List;
 import java.util.Map;
-import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 
 import lox.Expr.*;
 import lox.Stmt.*;
 
 public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
-    final Environment globals = new Environment();
+    final GlobalEnvironment globals = new GlobalEnvironment();
     private Environment environment = globals;
-    private final Map<Expr, Integer> locals = new HashMap<>();
+    private Map<Expr, Integer> locals = new HashMap<>();
+    private java.util.Set<Stmt.Return> tailCalls = new HashSet<>();
+    private Map<Stmt.Var, Boolean> deadVars = new HashMap<>();
+    private java.util.Set<Expr.Assign> deadStores = new HashSet<>();
+    private Map<Expr.Super, SuperSite> supers = new HashMap<>();
+    private Map<List<Stmt>, Capture> captures = new IdentityHashMap<>();
+    Profiler profiler;
+    final JvmCompiler jit = new JvmCompiler(this);
+    final TierManager tiers = new TierManager(this);
+    final Metrics metrics = new Metrics();
+    ClosureCompiler closures;
+    FlatInterpreter flat;
+    TypeInference types;
 
     Interpreter() {
-        globals.define("clock", new LoxCallable() {
-            @Override
-            public int arity() {
-                return 0;
-            }
-
-            @Override
-            public Object call(Interpreter interpreter, List<Object> arguments) {
-                return (double)System.currentTimeMillis() / 1000.0;
-            }
-
-            public String toString() {
-                return "<native clock fn>";
-            }
-        });
+        NativeFunction.install(globals, CoreModule.class);
     }
 
     void interpret(List<Stmt> statements) {
         try {
+            if (closures != null) {
+                closures.run(statements, globals);
+                return;
+            }
             for (Stmt statement : statements) {
                 execute(statement);
             }
@@ -41,6 +44,14 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         }
     }
 
+    void interpret(FlatAst program) {
+        try {
+            flat.run(program, globals);
+        } catch(RuntimeError error) {
+            Lox.runtimeError(error);
+        }
+    }
+
     Object replEval(Expr expr) {
         return expr.accept(this);
     }
@@ -70,6 +81,26 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return expr.accept(this);
     }
 
+    void execute(Stmt stmt, Environment environment) {
+        Environment previous = this.environment;
+        try {
+            this.environment = environment;
+            execute(stmt);
+        } finally {
+            this.environment = previous;
+        }
+    }
+
+    Object evaluate(Expr expr, Environment environment) {
+        Environment previous = this.environment;
+        try {
+            this.environment = environment;
+            return evaluate(expr);
+        } finally {
+            this.environment = previous;
+        }
+    }
+
     @Override
     public Void visitExpressionStmt(Expression stmt) {
         evaluate(stmt.expression);
@@ -85,6 +116,12 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitVarStmt(Var stmt) {
+        Boolean keepInitializer = deadVars.get(stmt);
+        if (keepInitializer != null) {
+            if (keepInitializer) evaluate(stmt.initializer);
+            return null;
+        }
+
         Object value = stmt.initializer != null ? evaluate(stmt.initializer) : Environment.UNINITIALIZED;
         environment.define(stmt.name.lexeme, value);
         return null;
@@ -121,12 +158,24 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitWhileStmt(While stmt) {
-        while (isTruthy(evaluate(stmt.condition))) {
+        if (!jit.enabled) {
+            while (isTruthy(evaluate(stmt.condition))) {
+                try {
+                    execute(stmt.body);
+                } catch(BreakException e) {
+                    break;
+                }
+            }
+            return null;
+        }
+        LoopProfile loop = tiers.profileOf(stmt);
+        while (!tiers.enterCompiled(loop, environment) && isTruthy(evaluate(stmt.condition))) {
             try {
                 execute(stmt.body);
             } catch(BreakException e) {
                 break;
             }
+            if (tiers.countBackEdge(loop)) tiers.hotLoop(stmt, loop, environment);
         }
         return null;
     }
@@ -138,13 +187,19 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitFunctionStmt(Function stmt) {
-        LoxFunction function = new LoxFunction(stmt.name.lexeme, stmt.params, stmt.body, environment, false);
+        LoxFunction function = new LoxFunction(stmt.name.lexeme, stmt.params, stmt.body, closureFor(stmt.body, environment), false, stmt.name.line);
         environment.define(stmt.name.lexeme, function);
         return null;
     }
 
     @Override
     public Void visitReturnStmt(Stmt.Return stmt) {
+        if (tailCalls.contains(stmt)) {
+            Call call = (Call) stmt.value;
+            Object callee = evaluate(call.callee);
+            throw new Return(tailCall(callee, call.paren, evaluateArguments(call)));
+        }
+
         Object value = null;
         if (stmt.value != null) value = evaluate(stmt.value);
 
@@ -173,22 +228,22 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         Map<String, LoxFunction> staticGetters = new HashMap<>();
 
         for (Stmt.Function method : stmt.methods) {
-            LoxFunction function = new LoxFunction(stmt.name.lexeme, method.params, method.body, environment, method.name.lexeme.equals("init"));
+            LoxFunction function = new LoxFunction(stmt.name.lexeme + "." + method.name.lexeme, method.params, method.body, closureFor(method.body, environment), method.name.lexeme.equals("init"), method.name.line);
             methods.put(method.name.lexeme, function);
         }
 
         for (Stmt.Function staticMethod : stmt.staticMethods) {
-            LoxFunction function = new LoxFunction(stmt.name.lexeme, staticMethod.params, staticMethod.body, environment, false);
+            LoxFunction function = new LoxFunction(stmt.name.lexeme + "." + staticMethod.name.lexeme, staticMethod.params, staticMethod.body, closureFor(staticMethod.body, environment), false, staticMethod.name.line);
             staticMethods.put(staticMethod.name.lexeme, function);
         }
 
         for (Stmt.Function getter : stmt.getters) {
-            LoxFunction function = new LoxFunction(stmt.name.lexeme, getter.params, getter.body, environment, false);
+            LoxFunction function = new LoxFunction(stmt.name.lexeme + "." + getter.name.lexeme, getter.params, getter.body, closureFor(getter.body, environment), false, getter.name.line);
             getters.put(getter.name.lexeme, function);
         }
 
         for (Stmt.Function staticGetter : stmt.staticGetters) {
-            LoxFunction function = new LoxFunction(stmt.name.lexeme, staticGetter.params, staticGetter.body, environment, false);
+            LoxFunction function = new LoxFunction(stmt.name.lexeme + "." + staticGetter.name.lexeme, staticGetter.params, staticGetter.body, closureFor(staticGetter.body, environment), false, staticGetter.name.line);
             staticGetters.put(staticGetter.name.lexeme, function);
         }
 
@@ -204,31 +259,161 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitCallExpr(Call expr) {
+        if (expr.callee instanceof Super superExpr) {
+            SuperSite site = supers.get(superExpr);
+            LoxFunction method = site.lookUp((LoxClass)environment.getAt(site.distance, "super"), superExpr.method);
+            LoxInstance receiver = (LoxInstance)environment.getAt(site.thisDistance, "this");
+            return callMethod(method, receiver, expr.paren, evaluateArguments(expr));
+        }
+
         Object callee = evaluate(expr.callee);
+        List<Expr> arguments = expr.arguments;
+        switch (arguments.size()) {
+            case 0:
+                return call0(callee, expr.paren);
+            case 1:
+                return call1(callee, expr.paren, evaluate(arguments.get(0)));
+            case 2: {
+                Object a = evaluate(arguments.get(0));
+                return call2(callee, expr.paren, a, evaluate(arguments.get(1)));
+            }
+            default:
+                return call(callee, expr.paren, evaluateArguments(expr));
+        }
+    }
 
-        List<Object> arguments = new ArrayList<>();
-        for (Expr argument : expr.arguments) { 
-            arguments.add(evaluate(argument));
+    private Object[] evaluateArguments(Call expr) {
+        Object[] arguments = new Object[expr.arguments.size()];
+        for (int i = 0; i < arguments.length; i++) {
+            arguments[i] = evaluate(expr.arguments.get(i));
         }
+        return arguments;
+    }
 
+    Object tailCall(Object callee, Token paren, Object[] arguments) {
         if (callee instanceof LoxFunction function) {
-            if (arguments.size() != function.arity()) {
-                throw new RuntimeError(expr.paren, "Expected " + function.arity() + " arguments but got " + arguments.size() + ".");
+            checkArity(paren, function, arguments);
+            return new TailCall(function, arguments);
+        }
+        return call(callee, paren, arguments);
+    }
+
+    Object call(Object callee, Token paren, Object[] arguments) {
+        if (profiler == null) return invoke(callee, paren, arguments);
+
+        if (callee instanceof LoxCallable function) profiler.enter(function, paren);
+        try {
+            return invoke(callee, paren, arguments);
+        } finally {
+            if (callee instanceof LoxCallable) profiler.exit();
+        }
+    }
+
+    private Object invoke(Object callee, Token paren, Object[] arguments) {
+        if (callee instanceof LoxFunction function) {
+            checkArity(paren, function, arguments);
+            try {
+                return function.call(this, arguments);
+            } catch (StackOverflowError error) {
+                throw new RuntimeError(paren, "Stack overflow.");
             }
-            return function.call(this, arguments);
         }
 
         if (!(callee instanceof LoxCallable)) {
-            throw new RuntimeError(expr.paren, "Can only call functions and classes.");
+            throw new RuntimeError(paren, "Can only call functions and classes.");
         }
 
         LoxCallable function = (LoxCallable) callee;
+        checkArity(paren, function, arguments);
+        try {
+            return function.call(this, arguments);
+        } catch (StackOverflowError error) {
+            throw new RuntimeError(paren, "Stack overflow.");
+        } catch (RuntimeError error) {
+            throw error.at(paren);
+        }
+    }
 
-        if (arguments.size() != function.arity()) {
-            throw new RuntimeError(expr.paren, "Expected " + function.arity() + " arguments but got " + arguments.size() + ".");
+    Object callMethod(LoxFunction method, LoxInstance receiver, Token paren, Object[] arguments) {
+        if (profiler != null) return call(method.bind(receiver), paren, arguments);
+        checkArity(paren, method, arguments);
+        try {
+            return method.callMethod(this, receiver, arguments);
+        } catch (StackOverflowError error) {
+            throw new RuntimeError(paren, "Stack overflow.");
         }
+    }
 
-        return function.call(this, arguments);
+    Object call0(Object callee, Token paren) {
+        LoxCallable function = direct(callee, 0);
+        if (function == null) return call(callee, paren, new Object[0]);
+        try {
+            return function.call0(this);
+        } catch (StackOverflowError error) {
+            throw new RuntimeError(paren, "Stack overflow.");
+        } catch (RuntimeError error) {
+            throw error.at(paren);
+        }
+    }
+
+    Object call1(Object callee, Token paren, Object a) {
+        LoxCallable function = direct(callee, 1);
+        if (function == null) return call(callee, paren, new Object[] {a});
+        try {
+            return function.call1(this, a);
+        } catch (StackOverflowError error) {
+            throw new RuntimeError(paren, "Stack overflow.");
+        } catch (RuntimeError error) {
+            throw error.at(paren);
+        }
+    }
+
+    Object call2(Object callee, Token paren, Object a, Object b) {
+        LoxCallable function = direct(callee, 2);
+        if (function == null) return call(callee, paren, new Object[] {a, b});
+        try {
+            return function.call2(this, a, b);
+        } catch (StackOverflowError error) {
+            throw new RuntimeError(paren, "Stack overflow.");
+        } catch (RuntimeError error) {
+            throw error.at(paren);
+        }
+    }
+
+    Object call3(Object callee, Token paren, Object a, Object b, Object c) {
+        LoxCallable function = direct(callee, 3);
+        if (function == null) return call(callee, paren, new Object[] {a, b, c});
+        try {
+            return function.call3(this, a, b, c);
+        } catch (StackOverflowError error) {
+            throw new RuntimeError(paren, "Stack overflow.");
+        } catch (RuntimeError error) {
+            throw error.at(paren);
+        }
+    }
+
+    Object call4(Object callee, Token paren, Object a, Object b, Object c, Object d) {
+        LoxCallable function = direct(callee, 4);
+        if (function == null) return call(callee, paren, new Object[] {a, b, c, d});
+        try {
+            return function.call4(this, a, b, c, d);
+        } catch (StackOverflowError error) {
+            throw new RuntimeError(paren, "Stack overflow.");
+        } catch (RuntimeError error) {
+            throw error.at(paren);
+        }
+    }
+
+    private LoxCallable direct(Object callee, int arity) {
+        if (profiler != null || !(callee instanceof LoxFunction || callee instanceof NativeFunction)) return null;
+        LoxCallable function = (LoxCallable) callee;
+        return function.arity() == arity ? function : null;
+    }
+
+    private void checkArity(Token paren, LoxCallable function, Object[] arguments) {
+        if (arguments.length != function.arity()) {
+            throw new RuntimeError(paren, "Expected " + function.arity() + " arguments but got " + arguments.length + ".");
+        }
     }
 
     @Override
@@ -271,7 +456,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitLambdaExpr(Lambda expr) {
-        return new LoxFunction(null, expr.params, expr.body, environment, false);
+        return new LoxFunction(null, expr.params, expr.body, closureFor(expr.body, environment), false, expr.keyword.line);
     }
 
     @Override
@@ -311,13 +496,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
         switch (expr.operator.type) {
             case PLUS:
-                if (left instanceof Double && right instanceof Double) {
-                    return (double) left + (double) right;
-                }
-                if (left instanceof String) {
-                    return (String)left + (String)right;
-                }
-                throw new RuntimeError(expr.operator, "Operands must be two numbers or one must be a string.");
+                return Values.add(left, right, expr.operator);
             case MINUS:
                 checkNumberOperands(expr.operator, left, right);
                 return (double) left - (double) right;
@@ -341,9 +520,9 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                 checkNumberOperands(expr.operator, left, right);
                 return (double) left <= (double) right;
             case BANG_EQUAL:
-                return !isEqual(left, right);
+                return !Values.isEqual(left, right);
             case EQUAL_EQUAL:
-                return isEqual(left, right);
+                return Values.isEqual(left, right);
             case BITWISE_AND:
                 checkIntegerOperands(expr.operator, left, right);
                 return (long) left & (long) right;
@@ -381,7 +560,8 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     @Override
     public Object visitAssignExpr(Assign expr) {
         Object value = evaluate(expr.value);
-        
+        if (deadStores.contains(expr)) return value;
+
         Integer dist = locals.get(expr);
         if (dist != null) {
             environment.assignAt(dist, expr.name, value);
@@ -440,17 +620,89 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     private Boolean isBoolable(Object object) {
         return object instanceof Boolean;
     }
-    
-    private Boolean isEqual(Object a, Object b) {
-        if (a == null && b == null) return true;
-        if (a == null || b == null) return false;
-        return a.equals(b);
-    }
 
     void resolve(Expr expr, int depth) {
         locals.put(expr, depth);
     }
 
+    void markTailCall(Stmt.Return stmt) {
+        tailCalls.add(stmt);
+    }
+
+    void resolveThis(Expr.Super expr, int depth) {
+        supers.put(expr, new SuperSite(locals.get(expr), depth));
+    }
+
+    SuperSite superSite(Expr.Super expr) {
+        return supers.get(expr);
+    }
+
+    void markCaptures(List<Stmt> body, Map<String, Integer> variables) {
+        captures.put(body, new Capture(variables));
+    }
+
+    Environment closureFor(List<Stmt> body, Environment environment) {
+        return closureFor(captures.get(body), environment);
+    }
+
+    Environment closureFor(Capture capture, Environment environment) {
+        if (capture == null) return environment;
+        return capture.flatten(environment, globals);
+    }
+
+    Capture captureOf(List<Stmt> body) {
+        return captures.get(body);
+    }
+
+    void markDeadVar(Stmt.Var stmt, boolean keepInitializer) {
+        deadVars.put(stmt, keepInitializer);
+        metrics.increment("dce.vars");
+    }
+
+    void markDeadStore(Expr.Assign expr) {
+        deadStores.add(expr);
+        metrics.increment("dce.stores");
+    }
+
+    Boolean deadVar(Stmt.Var stmt) {
+        return deadVars.get(stmt);
+    }
+
+    boolean isDeadStore(Expr.Assign expr) {
+        return deadStores.contains(expr);
+    }
+
+    void markConstant(String name, Stmt declaration) {
+        globals.markConstant(name, declaration);
+    }
+
+    void markLoop(Stmt.While stmt, List<Stmt> owner) {
+        tiers.markLoop(stmt, owner);
+    }
+
+    void releaseTree() {
+        locals = new HashMap<>();
+        tailCalls = new HashSet<>();
+        deadVars = new HashMap<>();
+        deadStores = new HashSet<>();
+        supers = new HashMap<>();
+        captures = new IdentityHashMap<>();
+        tiers.releaseLoops();
+        globals.releaseDeclarations();
+    }
+
+    boolean isTailCall(Stmt.Return stmt) {
+        return tailCalls.contains(stmt);
+    }
+
+    boolean isGlobal(Expr expr) {
+        return !locals.containsKey(expr);
+    }
+
+    int distanceOf(Expr expr) {
+        return locals.get(expr);
+    }
+
     private Object lookUpVariable(Token name, Expr expr) {
         Integer dist = locals.get(expr);
         if (dist != null) {
@@ -461,14 +713,8 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitSuperExpr(Super expr) {
-        int distance = locals.get(expr);
-        LoxClass superclass = (LoxClass)environment.getAt(distance, "super");
-        LoxInstance object = (LoxInstance)environment.getAt(distance - 1, "this");
-        LoxFunction method = superclass.findMethod(expr.method.lexeme); 
-        if (method == null) {
-            throw new RuntimeError(expr.method, "Undefined property '" + expr.method.lexeme + "'.");
-        }
-      
-        return method.bind(object);
+        SuperSite site = supers.get(expr);
+        LoxFunction method = site.lookUp((LoxClass)environment.getAt(site.distance, "super"), expr.method);
+        return method.bind((LoxInstance)environment.getAt(site.thisDistance, "this"));
     }
 }
\ No newline at end of file
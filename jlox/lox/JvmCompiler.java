@@ -0,0 +1,861 @@
+package lox;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static lox.ClassFile.*;
+
+class JvmCompiler {
+    private static final String BASE = "lox/CompiledFunction";
+    private static final String OBJECT = "Ljava/lang/Object;";
+    private static final String TOKEN = "Llox/Token;";
+    private static final String ENVIRONMENT = "Llox/Environment;";
+    private static final String LIST = "java/util/List";
+    private static final String METHOD_HANDLE = "Ljava/lang/invoke/MethodHandle;";
+
+    private final Interpreter interpreter;
+    private int classCount = 0;
+    boolean enabled = false;
+
+    JvmCompiler(Interpreter interpreter) {
+        this.interpreter = interpreter;
+    }
+
+    boolean request(FunctionProfile profile, List<Token> params, List<Stmt> body, Object[] arguments) {
+        if (!enabled) return false;
+
+        Type[] paramTypes = new Type[params.size()];
+        for (int i = 0; i < paramTypes.length; i++) {
+            paramTypes[i] = Type.of(arguments[i]);
+        }
+
+        long start = System.nanoTime();
+        Generator generator = new Generator(interpreter);
+        byte[] bytes;
+        try {
+            bytes = generator.generate("lox/JitCode" + classCount++, params, paramTypes, body);
+        } catch (Unsupported | IllegalStateException unsupported) {
+            return false;
+        }
+
+        profile.compiled = load(bytes, generator, start);
+        return true;
+    }
+
+    boolean request(LoopProfile profile, Stmt.While loop, Environment environment) {
+        if (!enabled) return false;
+
+        long start = System.nanoTime();
+        Generator generator = new Generator(interpreter);
+        byte[] bytes;
+        try {
+            bytes = generator.generate("lox/JitLoop" + classCount++, loop, environment);
+        } catch (Unsupported | IllegalStateException unsupported) {
+            return false;
+        }
+
+        Token[] names = new Token[generator.liveIns.size()];
+        int[] distances = new int[names.length];
+        int i = 0;
+        for (LiveIn liveIn : generator.liveIns.values()) {
+            names[i] = liveIn.token;
+            distances[i++] = liveIn.distance;
+        }
+        CompiledFunction compiled = load(bytes, generator, start);
+        if (compiled != null) profile.compiled = new CompiledLoop(compiled, names, distances);
+        return true;
+    }
+
+    private CompiledFunction load(byte[] bytes, Generator generator, long start) {
+        Token[] tokens = generator.tokens.toArray(new Token[0]);
+        Object[] values = generator.values.toArray();
+        Object[] sites = new Object[generator.sites.size()];
+        for (int i = 0; i < sites.length; i++) {
+            Expr.Call call = generator.sites.get(i);
+            sites[i] = new LoxCallSite(interpreter, call.paren, call.arguments.size());
+        }
+
+        CompiledFunction compiled;
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClassWithClassData(bytes, sites, true);
+            MethodType type = MethodType.methodType(void.class, Interpreter.class, Token[].class, Object[].class);
+            compiled = (CompiledFunction) lookup.findConstructor(lookup.lookupClass(), type)
+                .invoke(interpreter, tokens, values);
+        } catch (Throwable error) {
+            compiled = null;
+        }
+        interpreter.metrics.add("jit.compile-micros", (System.nanoTime() - start) / 1000);
+        interpreter.metrics.increment(compiled == null ? "jit.failed" : "jit.compiled");
+        return compiled;
+    }
+
+    private enum Type {
+        NUMBER("D"),
+        BOOLEAN("Z"),
+        OBJECT("Ljava/lang/Object;");
+
+        final String descriptor;
+
+        Type(String descriptor) {
+            this.descriptor = descriptor;
+        }
+
+        static Type of(Object value) {
+            if (value instanceof Double) return NUMBER;
+            if (value instanceof Boolean) return BOOLEAN;
+            return OBJECT;
+        }
+    }
+
+    private static class Unsupported extends RuntimeException {
+        Unsupported() {
+            super(null, null, false, false);
+        }
+    }
+
+    private static class Fragment {
+        final Type type;
+        final Runnable emit;
+
+        Fragment(Type type, Runnable emit) {
+            this.type = type;
+            this.emit = emit;
+        }
+    }
+
+    private static class Local {
+        final int slot;
+        final Object key;
+
+        Local(int slot, Object key) {
+            this.slot = slot;
+            this.key = key;
+        }
+    }
+
+    private static class LiveIn {
+        final Token token;
+        final int distance;
+
+        LiveIn(Token token, int distance) {
+            this.token = token;
+            this.distance = distance;
+        }
+    }
+
+    private static class Generator {
+        private final Interpreter interpreter;
+        private final Map<Object, Type> localTypes = new IdentityHashMap<>();
+        private final Deque<Map<String, Local>> scopes = new ArrayDeque<>();
+        private final Deque<Label> breaks = new ArrayDeque<>();
+        private final Map<LiveIn, Integer> liveInSlots = new IdentityHashMap<>();
+        final List<Token> tokens = new ArrayList<>();
+        final List<Object> values = new ArrayList<>();
+        final List<Expr.Call> sites = new ArrayList<>();
+        final Map<String, LiveIn> liveIns = new LinkedHashMap<>();
+        private String className;
+        private ClassFile file;
+        private ClassFile.Code code;
+        private boolean widened;
+        private int nextLocal;
+        private int environment;
+        private Environment loopEnvironment = null;
+        private boolean cacheLiveIns = true;
+        private int blockDepth;
+
+        Generator(Interpreter interpreter) {
+            this.interpreter = interpreter;
+        }
+
+        byte[] generate(String className, List<Token> params, Type[] paramTypes, List<Stmt> body) {
+            for (int i = 0; i < params.size(); i++) {
+                localTypes.put(params.get(i), paramTypes[i]);
+            }
+
+            do {
+                reset(className);
+                emitFunction(params, body);
+            } while (widened);
+
+            return finish();
+        }
+
+        byte[] generate(String className, Stmt.While loop, Environment environment) {
+            loopEnvironment = environment;
+
+            do {
+                reset(className);
+                emitLoop(loop);
+            } while (widened);
+
+            return finish();
+        }
+
+        private void reset(String className) {
+            widened = false;
+            nextLocal = 2;
+            blockDepth = 0;
+            tokens.clear();
+            values.clear();
+            sites.clear();
+            scopes.clear();
+            breaks.clear();
+            liveInSlots.clear();
+            this.className = className;
+            file = new ClassFile(className, BASE);
+            code = file.method(0, "run", "(L" + LIST + ";)" + OBJECT);
+        }
+
+        private byte[] finish() {
+            String signature = "(Llox/Interpreter;[" + TOKEN + "[" + OBJECT + ")V";
+            ClassFile.Code constructor = file.method(0, "<init>", signature);
+            for (int i = 0; i < 4; i++) {
+                constructor.local(ALOAD, i);
+            }
+            constructor.invoke(INVOKESPECIAL, BASE, "<init>", signature);
+            constructor.op(RETURN);
+
+            if (!sites.isEmpty()) {
+                ClassFile.Code initializer = file.method(ACC_STATIC, "<clinit>", "()V");
+                initializer.invoke(INVOKESTATIC, "java/lang/invoke/MethodHandles", "lookup", "()Ljava/lang/invoke/MethodHandles$Lookup;");
+                initializer.pushString("_");
+                initializer.pushClass("[" + OBJECT);
+                initializer.invoke(INVOKESTATIC, "java/lang/invoke/MethodHandles", "classData",
+                    "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/Class;)" + OBJECT);
+                initializer.type(CHECKCAST, "[" + OBJECT);
+                initializer.local(ASTORE, 0);
+                for (int i = 0; i < sites.size(); i++) {
+                    file.field(ACC_PRIVATE | ACC_STATIC | ACC_FINAL, "SITE" + i, METHOD_HANDLE);
+                    initializer.local(ALOAD, 0);
+                    initializer.push(i);
+                    initializer.op(AALOAD);
+                    initializer.type(CHECKCAST, "java/lang/invoke/CallSite");
+                    initializer.invoke(INVOKEVIRTUAL, "java/lang/invoke/CallSite", "dynamicInvoker", "()" + METHOD_HANDLE);
+                    initializer.field(PUTSTATIC, className, "SITE" + i, METHOD_HANDLE);
+                }
+                initializer.op(RETURN);
+            }
+            return file.toByteArray();
+        }
+
+        private void emitFunction(List<Token> params, List<Stmt> body) {
+            scopes.push(new HashMap<>());
+            for (int i = 0; i < params.size(); i++) {
+                Token param = params.get(i);
+                int argument = allocate(Type.OBJECT);
+                argument(i);
+                code.local(ASTORE, argument);
+                Type type = localTypes.get(param);
+                int slot = allocate(type);
+                unbox(slot, argument, type, true);
+                scopes.peek().put(param.lexeme, new Local(slot, param));
+            }
+
+            statements(body);
+            scopes.pop();
+
+            code.op(ACONST_NULL);
+            code.op(ARETURN);
+        }
+
+        private void emitLoop(Stmt.While loop) {
+            Label body = new Label();
+            Label prologue = new Label();
+            code.jump(GOTO, prologue);
+            code.mark(body);
+
+            environment = allocate(Type.OBJECT);
+            scopes.push(new HashMap<>());
+            statement(loop);
+            scopes.pop();
+            Label end = new Label();
+            code.mark(end);
+
+            boolean cached = cacheLiveIns && !liveIns.isEmpty();
+            if (cached) writeBack();
+            code.op(ACONST_NULL);
+            code.op(ARETURN);
+
+            if (cached) {
+                Label handler = new Label();
+                code.handler(body, end, handler);
+                code.mark(handler);
+                int thrown = allocate(Type.OBJECT);
+                code.local(ASTORE, thrown);
+                writeBack();
+                code.local(ALOAD, thrown);
+                code.op(ATHROW);
+            }
+
+            code.mark(prologue);
+            argument(0);
+            code.type(CHECKCAST, "lox/Environment");
+            code.local(ASTORE, environment);
+            if (cached) {
+                int index = 1;
+                for (LiveIn liveIn : liveIns.values()) {
+                    int entry = allocate(Type.OBJECT);
+                    argument(index++);
+                    code.local(ASTORE, entry);
+                    unbox(slotOf(liveIn), entry, localTypes.get(liveIn), false);
+                }
+            }
+            code.jump(GOTO, body);
+        }
+
+        private void writeBack() {
+            int index = 1;
+            for (LiveIn liveIn : liveIns.values()) {
+                code.local(ALOAD, 1);
+                code.push(index++);
+                Type type = localTypes.get(liveIn);
+                boxed(new Fragment(type, () -> load(slotOf(liveIn), type)));
+                code.invoke(INVOKEINTERFACE, LIST, "set", "(I" + OBJECT + ")" + OBJECT);
+                code.op(POP);
+            }
+        }
+
+        private void argument(int index) {
+            code.local(ALOAD, 1);
+            code.push(index);
+            code.invoke(INVOKEINTERFACE, LIST, "get", "(I)" + OBJECT);
+        }
+
+        private void unbox(int slot, int value, Type type, boolean define) {
+            if (type == Type.OBJECT) {
+                code.local(ALOAD, value);
+                if (define) code.invoke(INVOKESTATIC, BASE, "define", "(" + OBJECT + ")" + OBJECT);
+                code.local(ASTORE, slot);
+                return;
+            }
+
+            String box = type == Type.NUMBER ? "java/lang/Double" : "java/lang/Boolean";
+            Label checked = new Label();
+            code.local(ALOAD, value);
+            code.type(INSTANCEOF, box);
+            code.jump(IFNE, checked);
+            code.field(GETSTATIC, BASE, "DEOPT", OBJECT);
+            code.op(ARETURN);
+            code.mark(checked);
+            code.local(ALOAD, value);
+            code.type(CHECKCAST, box);
+            if (type == Type.NUMBER) {
+                code.invoke(INVOKEVIRTUAL, box, "doubleValue", "()D");
+            } else {
+                code.invoke(INVOKEVIRTUAL, box, "booleanValue", "()Z");
+            }
+            store(slot, type);
+        }
+
+        private void statements(List<Stmt> statements) {
+            for (Stmt statement : statements) {
+                statement(statement);
+            }
+        }
+
+        private void statement(Stmt stmt) {
+            if (stmt instanceof Stmt.Block block) {
+                scopes.push(new HashMap<>());
+                blockDepth++;
+                statements(block.statements);
+                blockDepth--;
+                scopes.pop();
+            } else if (stmt instanceof Stmt.Var var) {
+                varStatement(var);
+            } else if (stmt instanceof Stmt.Expression expression) {
+                Fragment value = expr(expression.expression);
+                value.emit.run();
+                code.op(value.type == Type.NUMBER ? POP2 : POP);
+            } else if (stmt instanceof Stmt.Print print) {
+                Fragment value = expr(print.expression);
+                code.field(GETSTATIC, "java/lang/System", "out", "Ljava/io/PrintStream;");
+                value.emit.run();
+                code.invoke(INVOKEVIRTUAL, "java/io/PrintStream", "println", "(" + value.type.descriptor + ")V");
+            } else if (stmt instanceof Stmt.If ifStmt) {
+                Fragment condition = expr(ifStmt.condition);
+                Label otherwise = new Label();
+                if (condition.type == Type.BOOLEAN) {
+                    condition.emit.run();
+                } else {
+                    boxed(condition);
+                    code.invoke(INVOKESTATIC, BASE, "ifTruthy", "(" + OBJECT + ")Z");
+                }
+                code.jump(IFEQ, otherwise);
+                statement(ifStmt.thenBranch);
+                if (ifStmt.elseBranch == null) {
+                    code.mark(otherwise);
+                } else {
+                    Label end = new Label();
+                    code.jump(GOTO, end);
+                    code.mark(otherwise);
+                    statement(ifStmt.elseBranch);
+                    code.mark(end);
+                }
+            } else if (stmt instanceof Stmt.While whileStmt) {
+                Label top = new Label();
+                Label end = new Label();
+                code.mark(top);
+                condition(whileStmt.condition);
+                code.jump(IFEQ, end);
+                breaks.push(end);
+                statement(whileStmt.body);
+                breaks.pop();
+                code.jump(GOTO, top);
+                code.mark(end);
+            } else if (stmt instanceof Stmt.Break) {
+                if (breaks.isEmpty()) throw new Unsupported();
+                code.jump(GOTO, breaks.peek());
+            } else if (stmt instanceof Stmt.Return returnStmt) {
+                returnStatement(returnStmt);
+            } else {
+                throw new Unsupported();
+            }
+        }
+
+        private void varStatement(Stmt.Var stmt) {
+            Fragment initializer = stmt.initializer == null ? null : expr(stmt.initializer);
+            Type type = localTypes.computeIfAbsent(stmt, key -> initializer == null ? Type.OBJECT : initializer.type);
+            int slot = allocate(type);
+
+            if (type == Type.OBJECT) {
+                if (initializer == null) {
+                    code.op(ACONST_NULL);
+                } else {
+                    boxed(initializer);
+                }
+                code.invoke(INVOKESTATIC, BASE, "define", "(" + OBJECT + ")" + OBJECT);
+                code.local(ASTORE, slot);
+            } else if (initializer.type != type) {
+                widen(stmt);
+            } else {
+                initializer.emit.run();
+                store(slot, type);
+            }
+            scopes.peek().put(stmt.name.lexeme, new Local(slot, stmt));
+        }
+
+        private void returnStatement(Stmt.Return stmt) {
+            if (loopEnvironment != null) throw new Unsupported();
+            if (stmt.value == null) {
+                code.op(ACONST_NULL);
+            } else if (interpreter.isTailCall(stmt)) {
+                Expr.Call call = (Expr.Call) stmt.value;
+                Fragment callee = expr(call.callee);
+                int paren = token(call.paren);
+                List<Fragment> arguments = new ArrayList<>();
+                for (Expr argument : call.arguments) {
+                    arguments.add(expr(argument));
+                }
+                code.local(ALOAD, 0);
+                boxed(callee);
+                loadToken(paren);
+                code.push(arguments.size());
+                code.type(ANEWARRAY, "java/lang/Object");
+                for (int i = 0; i < arguments.size(); i++) {
+                    code.op(DUP);
+                    code.push(i);
+                    boxed(arguments.get(i));
+                    code.op(AASTORE);
+                }
+                code.invoke(INVOKEVIRTUAL, BASE, "tailCall", "(" + OBJECT + TOKEN + "[" + OBJECT + ")" + OBJECT);
+            } else {
+                boxed(expr(stmt.value));
+            }
+            code.op(ARETURN);
+        }
+
+        private void condition(Expr expr) {
+            Fragment condition = expr(expr);
+            if (condition.type == Type.BOOLEAN) {
+                condition.emit.run();
+            } else {
+                boxed(condition);
+                code.invoke(INVOKESTATIC, BASE, "truthy", "(" + OBJECT + ")Z");
+            }
+        }
+
+        private Fragment expr(Expr expr) {
+            if (expr instanceof Expr.Literal literal) return literal(literal.value);
+            if (expr instanceof Expr.Grouping grouping) return expr(grouping.expression);
+            if (expr instanceof Expr.Variable variable) return variable(variable);
+            if (expr instanceof Expr.Assign assign) return assign(assign);
+            if (expr instanceof Expr.Unary unary) return unary(unary);
+            if (expr instanceof Expr.Binary binary) return binary(binary);
+            if (expr instanceof Expr.Logical logical) return logical(logical);
+            if (expr instanceof Expr.Ternary ternary) return ternary(ternary);
+            if (expr instanceof Expr.Call call) return call(call);
+            throw new Unsupported();
+        }
+
+        private Fragment literal(Object value) {
+            if (value instanceof Double number) return new Fragment(Type.NUMBER, () -> code.push((double) number));
+            if (value instanceof Boolean bool) return new Fragment(Type.BOOLEAN, () -> code.op(bool ? ICONST_1 : ICONST_0));
+            if (value == null) return new Fragment(Type.OBJECT, () -> code.op(ACONST_NULL));
+            int index = value(value);
+            return new Fragment(Type.OBJECT, () -> {
+                code.local(ALOAD, 0);
+                code.field(GETFIELD, BASE, "values", "[" + OBJECT);
+                code.push(index);
+                code.op(AALOAD);
+            });
+        }
+
+        private Fragment variable(Expr.Variable expr) {
+            Local local = lookup(expr.name);
+            if (local == null) local = liveIn(expr, expr.name);
+            if (local != null) {
+                int slot = local.slot;
+                Type type = localTypes.get(local.key);
+                return new Fragment(type, () -> load(slot, type));
+            }
+            if (interpreter.isGlobal(expr)) {
+                if (interpreter.globals.isConstant(expr.name.lexeme)) {
+                    int index = value(new ConstantBinding(interpreter.globals, expr.name));
+                    return new Fragment(Type.OBJECT, () -> {
+                        code.local(ALOAD, 0);
+                        code.push(index);
+                        code.invoke(INVOKEVIRTUAL, BASE, "constant", "(I)" + OBJECT);
+                    });
+                }
+                int name = token(expr.name);
+                return new Fragment(Type.OBJECT, () -> {
+                    code.local(ALOAD, 0);
+                    loadToken(name);
+                    code.invoke(INVOKEVIRTUAL, BASE, "global", "(" + TOKEN + ")" + OBJECT);
+                });
+            }
+            int depth = depthOf(expr);
+            int name = token(expr.name);
+            return new Fragment(Type.OBJECT, () -> {
+                code.local(ALOAD, environment);
+                code.push(depth);
+                loadToken(name);
+                code.invoke(INVOKESTATIC, BASE, "local", "(" + ENVIRONMENT + "I" + TOKEN + ")" + OBJECT);
+            });
+        }
+
+        private Fragment assign(Expr.Assign expr) {
+            Fragment value = expr(expr.value);
+            Local local = lookup(expr.name);
+            if (local == null) local = liveIn(expr, expr.name);
+            if (local == null) {
+                int name = token(expr.name);
+                if (interpreter.isGlobal(expr)) {
+                    return new Fragment(Type.OBJECT, () -> {
+                        code.local(ALOAD, 0);
+                        loadToken(name);
+                        boxed(value);
+                        code.invoke(INVOKEVIRTUAL, BASE, "assignGlobal", "(" + TOKEN + OBJECT + ")" + OBJECT);
+                    });
+                }
+                int depth = depthOf(expr);
+                return new Fragment(Type.OBJECT, () -> {
+                    code.local(ALOAD, environment);
+                    code.push(depth);
+                    loadToken(name);
+                    boxed(value);
+                    code.invoke(INVOKESTATIC, BASE, "assignLocal", "(" + ENVIRONMENT + "I" + TOKEN + OBJECT + ")" + OBJECT);
+                });
+            }
+
+            int slot = local.slot;
+            Type type = localTypes.get(local.key);
+            if (type == Type.OBJECT) {
+                return new Fragment(Type.OBJECT, () -> {
+                    boxed(value);
+                    code.op(DUP);
+                    store(slot, type);
+                });
+            }
+            if (value.type != type) widen(local.key);
+            return new Fragment(type, () -> {
+                value.emit.run();
+                code.op(type == Type.NUMBER ? DUP2 : DUP);
+                store(slot, type);
+            });
+        }
+
+        private Fragment unary(Expr.Unary expr) {
+            Fragment right = expr(expr.right);
+            switch (expr.operator.type) {
+                case MINUS:
+                    if (right.type != Type.NUMBER) throw new Unsupported();
+                    return new Fragment(Type.NUMBER, () -> {
+                        right.emit.run();
+                        code.op(DNEG);
+                    });
+                case BANG:
+                    return new Fragment(Type.BOOLEAN, () -> {
+                        if (right.type == Type.BOOLEAN) {
+                            right.emit.run();
+                        } else {
+                            boxed(right);
+                            code.invoke(INVOKESTATIC, BASE, "truthy", "(" + OBJECT + ")Z");
+                        }
+                        code.op(ICONST_1);
+                        code.op(IXOR);
+                    });
+                default:
+                    throw new Unsupported();
+            }
+        }
+
+        private Fragment binary(Expr.Binary expr) {
+            Fragment left = expr(expr.left);
+            Fragment right = expr(expr.right);
+            boolean numbers = left.type == Type.NUMBER && right.type == Type.NUMBER;
+            int operator = token(expr.operator);
+
+            switch (expr.operator.type) {
+                case PLUS:
+                    if (numbers) return arithmetic(left, DADD, right);
+                    return helper("add", left, right, operator, Type.OBJECT);
+                case MINUS:
+                    if (numbers) return arithmetic(left, DSUB, right);
+                    return helper("subtract", left, right, operator, Type.NUMBER);
+                case STAR:
+                    if (numbers) return arithmetic(left, DMUL, right);
+                    return helper("multiply", left, right, operator, Type.NUMBER);
+                case SLASH:
+                    if (!numbers) return helper("divide", left, right, operator, Type.NUMBER);
+                    return new Fragment(Type.NUMBER, () -> {
+                        left.emit.run();
+                        right.emit.run();
+                        loadToken(operator);
+                        code.invoke(INVOKESTATIC, BASE, "divide", "(DD" + TOKEN + ")D");
+                    });
+                case GREATER:
+                    return comparison(numbers, left, DCMPL, IFLE, right, "greater", operator);
+                case GREATER_EQUAL:
+                    return comparison(numbers, left, DCMPL, IFLT, right, "greaterEqual", operator);
+                case LESS:
+                    return comparison(numbers, left, DCMPG, IFGE, right, "less", operator);
+                case LESS_EQUAL:
+                    return comparison(numbers, left, DCMPG, IFGT, right, "lessEqual", operator);
+                case EQUAL_EQUAL:
+                    return equality(numbers, left, right, false);
+                case BANG_EQUAL:
+                    return equality(numbers, left, right, true);
+                default:
+                    throw new Unsupported();
+            }
+        }
+
+        private Fragment arithmetic(Fragment left, int opcode, Fragment right) {
+            return new Fragment(Type.NUMBER, () -> {
+                left.emit.run();
+                right.emit.run();
+                code.op(opcode);
+            });
+        }
+
+        private Fragment helper(String name, Fragment left, Fragment right, int operator, Type result) {
+            return new Fragment(result, () -> {
+                boxed(left);
+                boxed(right);
+                loadToken(operator);
+                code.invoke(INVOKESTATIC, BASE, name, "(" + OBJECT + OBJECT + TOKEN + ")" + result.descriptor);
+            });
+        }
+
+        private Fragment comparison(boolean numbers, Fragment left, int compare, int otherwise, Fragment right, String helper, int operator) {
+            if (!numbers) return helper(helper, left, right, operator, Type.BOOLEAN);
+            return new Fragment(Type.BOOLEAN, () -> {
+                left.emit.run();
+                right.emit.run();
+                code.op(compare);
+                flag(otherwise);
+            });
+        }
+
+        private Fragment equality(boolean numbers, Fragment left, Fragment right, boolean negate) {
+            return new Fragment(Type.BOOLEAN, () -> {
+                if (numbers) {
+                    left.emit.run();
+                    right.emit.run();
+                    code.invoke(INVOKESTATIC, BASE, "same", "(DD)Z");
+                } else {
+                    boxed(left);
+                    boxed(right);
+                    code.invoke(INVOKESTATIC, BASE, "same", "(" + OBJECT + OBJECT + ")Z");
+                }
+                if (negate) {
+                    code.op(ICONST_1);
+                    code.op(IXOR);
+                }
+            });
+        }
+
+        private Fragment logical(Expr.Logical expr) {
+            Fragment left = expr(expr.left);
+            Fragment right = expr(expr.right);
+            if (left.type != Type.BOOLEAN || right.type != Type.BOOLEAN) throw new Unsupported();
+            boolean or = expr.operator.type == TokenType.OR;
+            return new Fragment(Type.BOOLEAN, () -> {
+                Label shortCircuit = new Label();
+                Label end = new Label();
+                left.emit.run();
+                code.jump(or ? IFNE : IFEQ, shortCircuit);
+                right.emit.run();
+                code.jump(GOTO, end);
+                code.mark(shortCircuit);
+                code.op(or ? ICONST_1 : ICONST_0);
+                code.mark(end);
+            });
+        }
+
+        private void flag(int otherwise) {
+            Label other = new Label();
+            Label end = new Label();
+            code.jump(otherwise, other);
+            code.op(ICONST_1);
+            code.jump(GOTO, end);
+            code.mark(other);
+            code.op(ICONST_0);
+            code.mark(end);
+        }
+
+        private Fragment ternary(Expr.Ternary expr) {
+            Fragment left = expr(expr.left);
+            Fragment right = expr(expr.right);
+            Fragment condition = expr(expr.Condition);
+            if (left.type == Type.NUMBER && right.type == Type.NUMBER && condition.type == Type.BOOLEAN) {
+                return new Fragment(Type.NUMBER, () -> {
+                    left.emit.run();
+                    right.emit.run();
+                    condition.emit.run();
+                    code.invoke(INVOKESTATIC, BASE, "select", "(DDZ)D");
+                });
+            }
+            int operator = token(expr.operator);
+            return new Fragment(Type.OBJECT, () -> {
+                boxed(left);
+                boxed(right);
+                boxed(condition);
+                loadToken(operator);
+                code.invoke(INVOKESTATIC, BASE, "select", "(" + OBJECT + OBJECT + OBJECT + TOKEN + ")" + OBJECT);
+            });
+        }
+
+        private Fragment call(Expr.Call call) {
+            if (loopEnvironment != null && cacheLiveIns) {
+                cacheLiveIns = false;
+                liveIns.clear();
+                widened = true;
+            }
+            String site = "SITE" + sites.size();
+            sites.add(call);
+            Fragment callee = expr(call.callee);
+            List<Fragment> arguments = new ArrayList<>();
+            StringBuilder signature = new StringBuilder("(").append(OBJECT);
+            for (Expr argument : call.arguments) {
+                arguments.add(expr(argument));
+                signature.append(OBJECT);
+            }
+            String descriptor = signature.append(")").append(OBJECT).toString();
+            return new Fragment(Type.OBJECT, () -> {
+                code.field(GETSTATIC, className, site, METHOD_HANDLE);
+                boxed(callee);
+                for (Fragment argument : arguments) {
+                    boxed(argument);
+                }
+                code.invoke(INVOKEVIRTUAL, "java/lang/invoke/MethodHandle", "invokeExact", descriptor);
+            });
+        }
+
+        private void boxed(Fragment fragment) {
+            fragment.emit.run();
+            if (fragment.type == Type.NUMBER) {
+                code.invoke(INVOKESTATIC, "java/lang/Double", "valueOf", "(D)Ljava/lang/Double;");
+            } else if (fragment.type == Type.BOOLEAN) {
+                code.invoke(INVOKESTATIC, "java/lang/Boolean", "valueOf", "(Z)Ljava/lang/Boolean;");
+            }
+        }
+
+        private void load(int slot, Type type) {
+            code.local(type == Type.NUMBER ? DLOAD : type == Type.BOOLEAN ? ILOAD : ALOAD, slot);
+        }
+
+        private void store(int slot, Type type) {
+            code.local(type == Type.NUMBER ? DSTORE : type == Type.BOOLEAN ? ISTORE : ASTORE, slot);
+        }
+
+        private int allocate(Type type) {
+            int slot = nextLocal;
+            nextLocal += type == Type.NUMBER ? 2 : 1;
+            return slot;
+        }
+
+        private Local liveIn(Expr expr, Token name) {
+            if (loopEnvironment == null || !cacheLiveIns) return null;
+
+            int distance = interpreter.isGlobal(expr) ? -1 : depthOf(expr);
+            String key = name.lexeme + "@" + distance;
+            LiveIn liveIn = liveIns.get(key);
+            if (liveIn == null) {
+                liveIn = new LiveIn(name, distance);
+                liveIns.put(key, liveIn);
+                localTypes.put(liveIn, Type.of(entryValue(name, distance)));
+            }
+            return new Local(slotOf(liveIn), liveIn);
+        }
+
+        private int slotOf(LiveIn liveIn) {
+            return liveInSlots.computeIfAbsent(liveIn, key -> allocate(localTypes.get(key)));
+        }
+
+        private Object entryValue(Token name, int distance) {
+            if (distance >= 0) return loopEnvironment.getAt(distance, name.lexeme);
+            try {
+                return interpreter.globals.get(name);
+            } catch (RuntimeError error) {
+                throw new Unsupported();
+            }
+        }
+
+        private int depthOf(Expr expr) {
+            if (loopEnvironment == null) throw new Unsupported();
+            int depth = interpreter.distanceOf(expr) - blockDepth;
+            if (depth < 0) throw new Unsupported();
+            return depth;
+        }
+
+        private Local lookup(Token name) {
+            for (Map<String, Local> scope : scopes) {
+                Local local = scope.get(name.lexeme);
+                if (local != null) return local;
+            }
+            return null;
+        }
+
+        private int token(Token token) {
+            tokens.add(token);
+            return tokens.size() - 1;
+        }
+
+        private void loadToken(int index) {
+            code.local(ALOAD, 0);
+            code.field(GETFIELD, BASE, "tokens", "[" + TOKEN);
+            code.push(index);
+            code.op(AALOAD);
+        }
+
+        private int value(Object value) {
+            values.add(value);
+            return values.size() - 1;
+        }
+
+        private void widen(Object key) {
+            localTypes.put(key, Type.OBJECT);
+            widened = true;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package lox;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.Set;
+
+class LazyBody extends AbstractList<Stmt> {
+    private final Token name;
+    final Set<String> assigned;
+    private List<Token> tokens;
+    private List<Stmt> statements;
+    private Runnable resolution;
+    private RuntimeError failure;
+
+    LazyBody(Token name, List<Token> tokens, Set<String> assigned) {
+        this.name = name;
+        this.tokens = tokens;
+        this.assigned = assigned;
+    }
+
+    static boolean isUnparsed(List<Stmt> body) {
+        return body instanceof LazyBody lazy && lazy.statements == null;
+    }
+
+    void defer(Runnable resolution) {
+        this.resolution = resolution;
+    }
+
+    @Override
+    public Stmt get(int index) {
+        return statements().get(index);
+    }
+
+    @Override
+    public int size() {
+        return statements().size();
+    }
+
+    private List<Stmt> statements() {
+        if (failure != null) throw failure;
+        if (statements == null) parse();
+        return statements;
+    }
+
+    private void parse() {
+        boolean hadError = Lox.hadError;
+        Lox.hadError = false;
+        statements = new Parser(tokens).body();
+        tokens = null;
+
+        Runnable deferred = resolution;
+        resolution = null;
+        if (deferred != null && !Lox.hadError) deferred.run();
+
+        if (Lox.hadError) {
+            failure = new RuntimeError(name, "Could not compile function body.");
+            throw failure;
+        }
+        Lox.hadError = hadError;
+    }
+}
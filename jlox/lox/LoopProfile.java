@@ -0,0 +1,12 @@
+package lox;
+
+class LoopProfile {
+    int backEdges = 0;
+    int deopts = 0;
+    volatile CompiledLoop compiled = null;
+    final FunctionProfile owner;
+
+    LoopProfile(FunctionProfile owner) {
+        this.owner = owner;
+    }
+}
@@ -12,28 +12,140 @@ public class Lox {
     private static final Interpreter interpreter = new Interpreter();
     static boolean hadError = false;
     static boolean hadRuntimeError = false;
+    private static final ThreadLocal<List<Runnable>> deferredReports = new ThreadLocal<>();
+    private static String profileOutput = null;
+    private static boolean printStats = false;
+    private static boolean dumpTypes = false;
+    private static boolean lazyParsing = false;
+    private static final long PROFILE_INTERVAL_MICROS = 1000;
     public static void main(String[] args) {
-        if (args.length > 1) {
-            System.out.println("Usage: jlox [script]");
-            System.exit(64);
-        } else if (args.length == 1) {
-            try {
-                runFile(args[0]);
-            } catch (IOException e) {
-                e.printStackTrace();
+        String script = null;
+        long stackSize = 0;
+        boolean fusion = true;
+        boolean inlining = true;
+
+        for (String arg : args) {
+            if (arg.startsWith("--stack-size=")) {
+                stackSize = parseSize(arg.substring("--stack-size=".length()));
+            } else if (arg.equals("--jit")) {
+                interpreter.jit.enabled = true;
+            } else if (arg.equals("--no-jit")) {
+                interpreter.jit.enabled = false;
+            } else if (arg.startsWith("--jit-threshold=")) {
+                interpreter.tiers.functionThreshold = parseCount(arg.substring("--jit-threshold=".length()));
+            } else if (arg.startsWith("--loop-threshold=")) {
+                interpreter.tiers.loopThreshold = parseCount(arg.substring("--loop-threshold=".length()));
+            } else if (arg.startsWith("--deopt-limit=")) {
+                interpreter.tiers.deoptLimit = parseCount(arg.substring("--deopt-limit=".length()));
+            } else if (arg.equals("--engine=closure")) {
+                interpreter.closures = new ClosureCompiler(interpreter);
+                interpreter.flat = null;
+            } else if (arg.equals("--engine=flat")) {
+                interpreter.flat = new FlatInterpreter(interpreter);
+                interpreter.closures = null;
+            } else if (arg.equals("--engine=tree")) {
+                interpreter.closures = null;
+                interpreter.flat = null;
+            } else if (arg.equals("--no-fusion")) {
+                fusion = false;
+            } else if (arg.equals("--no-inline")) {
+                inlining = false;
+            } else if (arg.equals("--lazy")) {
+                lazyParsing = true;
+            } else if (arg.equals("--dump-types")) {
+                dumpTypes = true;
+            } else if (arg.equals("--stats")) {
+                printStats = true;
+            } else if (arg.equals("--profile")) {
+                profileOutput = "profile.folded";
+            } else if (arg.startsWith("--profile=")) {
+                profileOutput = arg.substring("--profile=".length());
+            } else if (arg.startsWith("--") || script != null) {
+                usage();
+            } else {
+                script = arg;
             }
-        } else {
+        }
+
+        if (interpreter.closures != null) {
+            interpreter.closures.fusion = fusion;
+            interpreter.closures.inlining = inlining;
+        }
+        if (interpreter.flat != null) {
+            interpreter.jit.enabled = false;
+            lazyParsing = false;
+        }
+
+        String path = script;
+        Runnable session = () -> {
             try {
-                runPrompt();
+                if (path != null) {
+                    runFile(path);
+                } else {
+                    runPrompt();
+                }
             } catch (IOException e) {
                 e.printStackTrace();
             }
+        };
+
+        if (stackSize == 0) {
+            session.run();
+            return;
         }
+
+        Thread thread = new Thread(null, session, "lox", stackSize);
+        thread.start();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void usage() {
+        System.out.println("Usage: jlox [--stack-size=<bytes>[k|m|g]] [--profile[=<file>]] [--engine=tree|closure|flat] [--no-fusion] [--no-inline] [--jit|--no-jit] [--jit-threshold=<calls>] [--loop-threshold=<iterations>] [--deopt-limit=<count>] [--lazy] [--dump-types] [--stats] [script]");
+        System.exit(64);
+    }
+
+    private static int parseCount(String text) {
+        try {
+            int count = Integer.parseInt(text);
+            if (count > 0) return count;
+        } catch (NumberFormatException e) {
+        }
+        usage();
+        return 0;
+    }
+
+    private static long parseSize(String text) {
+        long unit = 1;
+        char suffix = text.isEmpty() ? ' ' : Character.toLowerCase(text.charAt(text.length() - 1));
+        if (suffix == 'k') unit = 1L << 10;
+        if (suffix == 'm') unit = 1L << 20;
+        if (suffix == 'g') unit = 1L << 30;
+        if (unit != 1) text = text.substring(0, text.length() - 1);
+
+        try {
+            long size = Long.parseLong(text) * unit;
+            if (size > 0) return size;
+        } catch (NumberFormatException e) {
+        }
+        usage();
+        return 0;
     }
 
     private static void runFile(String path) throws IOException {
         byte[] bytes = Files.readAllBytes(Paths.get(path));
-        run(new String(bytes, Charset.defaultCharset()));
+        if (profileOutput == null) {
+            run(new String(bytes, Charset.defaultCharset()));
+        } else {
+            profile(new String(bytes, Charset.defaultCharset()));
+        }
+        if (printStats) {
+            interpreter.tiers.report(interpreter.metrics);
+            interpreter.metrics.print(System.err);
+        }
         if (hadError) System.exit(65);
         if (hadRuntimeError) System.exit(70);
     }
@@ -52,21 +164,50 @@ public class Lox {
     }
 
     private static void run(String source) {
-        Scanner scanner = new Scanner(source);
-        List<Token> tokens = scanner.scanTokens();
-
-        Parser parser = new Parser(tokens);
-        List<Stmt> statements = parser.parse();
-
-        Resolver resolver = new Resolver(interpreter);
-        resolver.resolve(statements);
-
+        List<Stmt> statements = parse(source);
         if (hadError) return;
+
+        if (interpreter.closures != null || dumpTypes) {
+            TypeInference types = new TypeInference();
+            types.infer(statements);
+            if (dumpTypes) types.dump(System.err);
+            interpreter.types = types;
+        }
         
         if (hadError) return;
+        if (interpreter.flat != null) {
+            FlatAst program = interpreter.flat.encode(statements);
+            statements = null;
+            interpreter.interpret(program);
+            return;
+        }
         interpreter.interpret(statements);
     }
 
+    private static List<Stmt> parse(String source) {
+        List<Token> tokens = new ParallelScanner(source).scanTokens();
+
+        Resolver resolver = new Resolver(interpreter);
+        List<Stmt> statements = new ParallelFrontEnd(resolver, lazyParsing).run(tokens);
+        resolver.markConstantGlobals();
+        return statements;
+    }
+
+    private static void profile(String source) throws IOException {
+        Profiler profiler = new Profiler(PROFILE_INTERVAL_MICROS);
+        interpreter.profiler = profiler;
+        profiler.start();
+        try {
+            run(source);
+        } finally {
+            profiler.stop();
+            interpreter.profiler = null;
+        }
+
+        profiler.writeCollapsed(profileOutput);
+        profiler.printTable(System.err);
+    }
+
     private static void repl(String source) {
         Scanner scanner = new Scanner(source);
         List<Token> tokens = scanner.scanTokens();
@@ -102,7 +243,20 @@ public class Lox {
         }
     }
 
+    static void deferReports(List<Runnable> reports) {
+        if (reports == null) {
+            deferredReports.remove();
+        } else {
+            deferredReports.set(reports);
+        }
+    }
+
     private static void report(int line, String where, String messsage) {
+        List<Runnable> reports = deferredReports.get();
+        if (reports != null) {
+            reports.add(() -> report(line, where, messsage));
+            return;
+        }
         System.err.println("[line " + line + "] Error " + where + ": " + messsage);
         hadError = true;
     }
@@ -110,5 +264,12 @@ public class Lox {
     static void runtimeError(RuntimeError error) {
         System.err.println(error.getMessage() + "\n[line " + error.token.line + "]");
         hadRuntimeError = true;
+
+        RuntimeErrorEvent event = new RuntimeErrorEvent();
+        if (event.isEnabled()) {
+            event.message = error.getMessage();
+            event.line = error.token.line;
+            event.commit();
+        }
     }
 }
\ No newline at end of file
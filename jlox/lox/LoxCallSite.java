@@ -0,0 +1,87 @@
+package lox;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.MutableCallSite;
+import java.util.Arrays;
+
+class LoxCallSite extends MutableCallSite {
+    private static final int MAX_CHAIN = 4;
+    private static final MethodHandle FALLBACK;
+    private static final MethodHandle GENERIC;
+    private static final MethodHandle DIRECT;
+    private static final MethodHandle IS_SAME;
+
+    static {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        try {
+            FALLBACK = lookup.findVirtual(LoxCallSite.class, "fallback",
+                MethodType.methodType(Object.class, Object[].class));
+            GENERIC = lookup.findStatic(LoxCallSite.class, "generic",
+                MethodType.methodType(Object.class, Interpreter.class, Token.class, Object[].class));
+            DIRECT = lookup.findStatic(LoxCallSite.class, "direct",
+                MethodType.methodType(Object.class, LoxCallable.class, Interpreter.class, Token.class, Object[].class));
+            IS_SAME = lookup.findStatic(LoxCallSite.class, "isSame",
+                MethodType.methodType(boolean.class, Object.class, Object.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final Interpreter interpreter;
+    private final Token paren;
+    private final int arity;
+    private int chain = 0;
+
+    LoxCallSite(Interpreter interpreter, Token paren, int arity) {
+        super(MethodType.genericMethodType(arity + 1));
+        this.interpreter = interpreter;
+        this.paren = paren;
+        this.arity = arity;
+        setTarget(FALLBACK.bindTo(this).asCollector(Object[].class, arity + 1));
+    }
+
+    private Object fallback(Object[] values) {
+        Object callee = values[0];
+        if (interpreter.profiler == null && callee instanceof LoxCallable function && function.arity() == arity) {
+            link(function);
+        }
+        return generic(interpreter, paren, values);
+    }
+
+    private void link(LoxCallable function) {
+        if (chain == MAX_CHAIN) {
+            MethodHandle generic = MethodHandles.insertArguments(GENERIC, 0, interpreter, paren);
+            setTarget(generic.asCollector(Object[].class, arity + 1));
+            return;
+        }
+        chain++;
+
+        MethodHandle test = MethodHandles.insertArguments(IS_SAME, 1, function);
+        test = MethodHandles.dropArguments(test, 1, type().parameterList().subList(1, arity + 1));
+
+        MethodHandle direct = MethodHandles.insertArguments(DIRECT, 0, function, interpreter, paren);
+        direct = MethodHandles.dropArguments(direct.asCollector(Object[].class, arity), 0, Object.class);
+
+        setTarget(MethodHandles.guardWithTest(test, direct, getTarget()));
+    }
+
+    private static Object generic(Interpreter interpreter, Token paren, Object[] values) {
+        return interpreter.call(values[0], paren, Arrays.copyOfRange(values, 1, values.length));
+    }
+
+    private static Object direct(LoxCallable function, Interpreter interpreter, Token paren, Object[] arguments) {
+        try {
+            return function.call(interpreter, arguments);
+        } catch (StackOverflowError error) {
+            throw new RuntimeError(paren, "Stack overflow.");
+        } catch (RuntimeError error) {
+            throw error.at(paren);
+        }
+    }
+
+    private static boolean isSame(Object callee, Object expected) {
+        return callee == expected;
+    }
+}
@@ -1,7 +1,8 @@
 package lox;
 
-import java.util.List;
+import java.util.HashMap;
 import java.util.Map;
+import jdk.jfr.FlightRecorder;
 
 public class LoxClass extends LoxInstance implements LoxCallable {
     final String name;
@@ -10,25 +11,36 @@ public class LoxClass extends LoxInstance implements LoxCallable {
     private final Map<String, LoxFunction> staticMethods;
     private final Map<String, LoxFunction> getters;
     private final Map<String, LoxFunction> staticGetters;
+    private final Map<String, LoxFunction> boundStaticMethods = new HashMap<>();
+    private final Map<String, LoxFunction> boundStaticGetters = new HashMap<>();
+    private final LoxFunction initializer;
 
     LoxClass(String name, LoxClass superclass, Map<String, LoxFunction> methods, Map<String, LoxFunction> staticMethods, Map<String, LoxFunction> getters, Map<String, LoxFunction> staticGetters) {
         super(null);
         this.name = name;
         this.superclass = superclass;
-        this.methods = methods;
-        this.staticMethods = staticMethods;
-        this.getters = getters;
-        this.staticGetters = staticGetters;
+        this.methods = inherit(superclass == null ? null : superclass.methods, methods);
+        this.staticMethods = inherit(superclass == null ? null : superclass.staticMethods, staticMethods);
+        this.getters = inherit(superclass == null ? null : superclass.getters, getters);
+        this.staticGetters = inherit(superclass == null ? null : superclass.staticGetters, staticGetters);
+        this.initializer = this.methods.get("init");
         this.clas = this;
 
-        for (LoxFunction function : staticMethods.values()) {
-            function.bind(this);
+        for (Map.Entry<String, LoxFunction> entry : this.staticMethods.entrySet()) {
+            boundStaticMethods.put(entry.getKey(), entry.getValue().bind(this));
         }
-        for (LoxFunction function: staticGetters.values()) {
-            function.bind(this);
+        for (Map.Entry<String, LoxFunction> entry : this.staticGetters.entrySet()) {
+            boundStaticGetters.put(entry.getKey(), entry.getValue().bind(this));
         }
     }
 
+    private static Map<String, LoxFunction> inherit(Map<String, LoxFunction> inherited, Map<String, LoxFunction> declared) {
+        if (inherited == null) return declared;
+        Map<String, LoxFunction> table = new HashMap<>(inherited);
+        table.putAll(declared);
+        return table;
+    }
+
     @Override
     public String toString() {
         return "<class " + name + ">";
@@ -36,60 +48,47 @@ public class LoxClass extends LoxInstance implements LoxCallable {
 
     @Override
     public int arity() {
-        LoxFunction init = findMethod("init");
-        if (init == null) return 0;
-        return init.arity();
+        if (initializer == null) return 0;
+        return initializer.arity();
     }
 
     @Override
-    public Object call(Interpreter interpreter, List<Object> arguments) {
+    public Object call(Interpreter interpreter, Object[] arguments) {
+        if (!FlightRecorder.isInitialized()) return instantiate(interpreter, arguments);
+
+        InstanceCreationEvent event = new InstanceCreationEvent();
+        event.begin();
+        LoxInstance instance = instantiate(interpreter, arguments);
+        event.end();
+        if (event.shouldCommit()) {
+            event.className = name;
+            event.commit();
+        }
+        return instance;
+    }
+
+    private LoxInstance instantiate(Interpreter interpreter, Object[] arguments) {
         LoxInstance instance = new LoxInstance(this);
         
-        LoxFunction initializer = findMethod("init");
         if (initializer != null) {
             initializer.bind(instance).call(interpreter, arguments);
         }
-
         return instance;
     }
 
     public LoxFunction findGetter(String name) {
-        if (getters.containsKey(name)) {
-            return getters.get(name);
-        }
-        if (superclass != null) {
-            return superclass.findGetter(name);
-        }
-        return null;
+        return getters.get(name);
     }
     
     public LoxFunction findMethod(String name) {
-        if (methods.containsKey(name)) {
-            return methods.get(name);
-        }
-        if (superclass != null) {
-            return superclass.findMethod(name);
-        }
-        return null;
+        return methods.get(name);
     }
 
     public LoxFunction findStaticMethod(String name) {
-        if (staticMethods.containsKey(name)) {
-            return staticMethods.get(name);
-        }
-        if (superclass != null) {
-            return superclass.findStaticMethod(name);
-        }
-        return null;
+        return boundStaticMethods.get(name);
     }
 
     public LoxFunction findStaticGetter(String name) {
-        if (staticGetters.containsKey(name)) {
-            return staticGetters.get(name);
-        }
-        if (superclass != null) {
-            return superclass.findStaticGetter(name);
-        }
-        return null;
+        return boundStaticGetters.get(name);
     }
 }
@@ -1,6 +1,8 @@
 package lox;
 
+import java.util.Arrays;
 import java.util.List;
+import jdk.jfr.FlightRecorder;
 
 class LoxFunction implements LoxCallable {
     private final String name;
@@ -8,35 +10,176 @@ class LoxFunction implements LoxCallable {
     private final List<Stmt> body;
     private final Environment closure;
     private final boolean isInitializer;
+    final int line;
+    private final FlatAst.Function code;
+    private FunctionProfile profile;
 
-    LoxFunction(String name, List<Token> parameters, List<Stmt> body, Environment closure, boolean isInitializer) {
+    LoxFunction(String name, List<Token> parameters, List<Stmt> body, Environment closure, boolean isInitializer, int line) {
+        this(name, parameters, body, closure, isInitializer, line, null);
+    }
+
+    LoxFunction(FlatAst.Function code, Environment closure) {
+        this(code.qualifiedName, null, null, closure, code.isInitializer, code.line, code);
+    }
+
+    private LoxFunction(String name, List<Token> parameters, List<Stmt> body, Environment closure, boolean isInitializer, int line, FlatAst.Function code) {
         this.name = name;
         this.parameters = parameters;
         this.body = body;
         this.closure = closure;
         this.isInitializer = isInitializer;
+        this.line = line;
+        this.code = code;
     }
 
     LoxFunction bind(LoxInstance instance) {
         Environment environment = new Environment(closure);
         environment.define("this", instance);
-        return new LoxFunction(name, parameters, body, environment, this.isInitializer);
+        LoxFunction bound = new LoxFunction(name, parameters, body, environment, this.isInitializer, line, code);
+        bound.profile = profile;
+        return bound;
     }
 
     LoxFunction bind(LoxClass klas) {
         Environment environment = new Environment(closure);
         environment.define("this", klas);
-        return new LoxFunction(name, parameters, body, environment, this.isInitializer);
+        LoxFunction bound = new LoxFunction(name, parameters, body, environment, this.isInitializer, line, code);
+        bound.profile = profile;
+        return bound;
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, Object[] arguments) {
+        return complete(interpreter, invoke(interpreter, closure, arguments, null));
+    }
+
+    Object callMethod(Interpreter interpreter, LoxInstance receiver, Object[] arguments) {
+        Environment bound = new Environment(closure);
+        bound.define("this", receiver);
+        return complete(interpreter, invoke(interpreter, bound, arguments, null));
     }
 
     @Override
-    public Object call(Interpreter interpreter, List<Object> arguments) {
+    public Object call0(Interpreter interpreter) {
+        if (!interpreted(interpreter)) return call(interpreter, new Object[0]);
+        return complete(interpreter, invoke(interpreter, closure, null, new Environment(closure)));
+    }
+
+    @Override
+    public Object call1(Interpreter interpreter, Object a) {
+        if (!interpreted(interpreter)) return call(interpreter, new Object[] {a});
         Environment environment = new Environment(closure);
-        for (int i = 0; i < parameters.size(); i++) {
-            environment.define(parameters.get(i).lexeme, arguments.get(i));
+        environment.define(parameter(0), a);
+        return complete(interpreter, invoke(interpreter, closure, null, environment));
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter, Object a, Object b) {
+        if (!interpreted(interpreter)) return call(interpreter, new Object[] {a, b});
+        Environment environment = new Environment(closure);
+        environment.define(parameter(0), a);
+        environment.define(parameter(1), b);
+        return complete(interpreter, invoke(interpreter, closure, null, environment));
+    }
+
+    @Override
+    public Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+        if (!interpreted(interpreter)) return call(interpreter, new Object[] {a, b, c});
+        Environment environment = new Environment(closure);
+        environment.define(parameter(0), a);
+        environment.define(parameter(1), b);
+        environment.define(parameter(2), c);
+        return complete(interpreter, invoke(interpreter, closure, null, environment));
+    }
+
+    @Override
+    public Object call4(Interpreter interpreter, Object a, Object b, Object c, Object d) {
+        if (!interpreted(interpreter)) return call(interpreter, new Object[] {a, b, c, d});
+        Environment environment = new Environment(closure);
+        environment.define(parameter(0), a);
+        environment.define(parameter(1), b);
+        environment.define(parameter(2), c);
+        environment.define(parameter(3), d);
+        return complete(interpreter, invoke(interpreter, closure, null, environment));
+    }
+
+    private boolean interpreted(Interpreter interpreter) {
+        if (code != null) return true;
+        if (profile == null || profile.compiled != null) return false;
+        return !interpreter.jit.enabled || profile.queued || isInitializer
+                || profile.calls + 1 < interpreter.tiers.functionThreshold;
+    }
+
+    private static Object complete(Interpreter interpreter, Object result) {
+        while (result instanceof TailCall tailCall) {
+            LoxFunction function = tailCall.function;
+            result = function.invoke(interpreter, function.closure, tailCall.arguments, null);
+        }
+        return result;
+    }
+
+    private Object invoke(Interpreter interpreter, Environment closure, Object[] arguments, Environment environment) {
+        if (!FlightRecorder.isInitialized()) return dispatch(interpreter, closure, arguments, environment);
+
+        FunctionCallEvent event = new FunctionCallEvent();
+        event.begin();
+        try {
+            return dispatch(interpreter, closure, arguments, environment);
+        } finally {
+            event.end();
+            if (event.shouldCommit()) {
+                event.function = name();
+                event.line = line;
+                event.commit();
+            }
+        }
+    }
+
+    private Object dispatch(Interpreter interpreter, Environment closure, Object[] arguments, Environment environment) {
+        if (environment == null) return execute(interpreter, closure, arguments);
+        if (interpreter.jit.enabled) profile.calls++;
+        return run(interpreter, closure, environment);
+    }
+
+    private Object execute(Interpreter interpreter, Environment closure, Object[] arguments) {
+        if (code != null) return run(interpreter, closure, bindParameters(closure, arguments));
+        if (profile == null) profile = interpreter.tiers.profileOf(body);
+
+        CompiledFunction compiled = profile.compiled;
+        if (compiled != null) {
+            Object result = compiled.invoke(Arrays.asList(arguments));
+            if (result != CompiledFunction.DEOPT) return result;
+            interpreter.tiers.deoptimize(profile);
+        } else if (interpreter.jit.enabled && ++profile.calls >= interpreter.tiers.functionThreshold && !profile.queued && !isInitializer) {
+            interpreter.tiers.promote(profile, parameters, body, arguments);
+        }
+
+        return run(interpreter, closure, bindParameters(closure, arguments));
+    }
+
+    private Environment bindParameters(Environment closure, Object[] arguments) {
+        Environment environment = new Environment(closure);
+        for (int i = 0; i < arguments.length; i++) {
+            environment.define(parameter(i), arguments[i]);
+        }
+        return environment;
+    }
+
+    private String parameter(int index) {
+        return code != null ? code.parameters[index] : parameters.get(index).lexeme;
+    }
+
+    private Object run(Interpreter interpreter, Environment closure, Environment environment) {
+        if (code != null) {
+            Object result = interpreter.flat.execute(code, environment);
+            return isInitializer ? closure.getAt(0, "this") : result;
         }
         try {
-            interpreter.executeBlock(body, environment);
+            if (interpreter.closures != null) {
+                interpreter.closures.execute(profile, body, environment);
+            } else {
+                interpreter.executeBlock(body, environment);
+            }
         } catch (Return returnValue) {
             if (isInitializer) return closure.getAt(0, "this");
             return returnValue.value;
@@ -45,9 +188,17 @@ class LoxFunction implements LoxCallable {
         return null;
     }
 
+    boolean isDeclaredBy(List<Stmt> declaration) {
+        return body == declaration;
+    }
+
+    String name() {
+        return name == null ? "<lambda>" : name;
+    }
+
     @Override
     public int arity() {
-        return parameters.size();
+        return code != null ? code.parameters.length : parameters.size();
     }
 
     @Override
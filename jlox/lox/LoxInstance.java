@@ -24,8 +24,7 @@ public class LoxInstance {
 
         LoxFunction getter = clas.findGetter(name.lexeme);
         if (getter != null) {
-            getter = getter.bind(this);
-            return getter.call(interpreter, List.of());
+            return callGetter(getter.bind(this), name, interpreter);
         }
 
         LoxFunction method = clas.findMethod(name.lexeme);
@@ -35,18 +34,26 @@ public class LoxInstance {
 
         LoxFunction staticGetter = clas.findStaticGetter(name.lexeme);
         if (staticGetter != null) {
-            staticGetter = staticGetter.bind(clas);
-            return staticGetter.call(interpreter, List.of());
+            return callGetter(staticGetter, name, interpreter);
         }
 
         LoxFunction staticMethod = clas.findStaticMethod(name.lexeme);
         if (staticMethod != null) {
-            return staticMethod.bind(clas);
+            return staticMethod;
         }
 
         throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
     }
 
+    private static Object callGetter(LoxFunction getter, Token name, Interpreter interpreter) {
+        if (interpreter.profiler != null) return interpreter.call(getter, name, new Object[0]);
+        try {
+            return getter.call0(interpreter);
+        } catch (StackOverflowError error) {
+            throw new RuntimeError(name, "Stack overflow.");
+        }
+    }
+
     void set(Token name, Object Value) {
         fields.put(name.lexeme, Value);
     }
@@ -0,0 +1,31 @@
+package lox;
+
+import java.io.PrintStream;
+import java.util.Map;
+import java.util.TreeMap;
+
+class Metrics {
+    private final Map<String, Long> counters = new TreeMap<>();
+
+    synchronized void increment(String name) {
+        add(name, 1);
+    }
+
+    synchronized void add(String name, long amount) {
+        counters.merge(name, amount, Long::sum);
+    }
+
+    synchronized void set(String name, long value) {
+        counters.put(name, value);
+    }
+
+    synchronized long get(String name) {
+        return counters.getOrDefault(name, 0L);
+    }
+
+    synchronized void print(PrintStream out) {
+        for (Map.Entry<String, Long> counter : counters.entrySet()) {
+            out.println(String.format("%-40s %d", counter.getKey(), counter.getValue()));
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package lox;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+class NativeFunction implements LoxCallable {
+    private static final MethodHandle NUMBER;
+    private static final MethodHandle STRING;
+    private static final MethodHandle BOOLEAN;
+    private static final MethodHandle NIL = MethodHandles.constant(Object.class, null);
+
+    static {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        try {
+            NUMBER = lookup.findStatic(NativeFunction.class, "number", MethodType.methodType(double.class, Object.class));
+            STRING = lookup.findStatic(NativeFunction.class, "string", MethodType.methodType(String.class, Object.class));
+            BOOLEAN = lookup.findStatic(NativeFunction.class, "bool", MethodType.methodType(boolean.class, Object.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    final String name;
+    private final int arity;
+    private final MethodHandle handle;
+    private final MethodHandle spread;
+
+    private NativeFunction(String name, MethodHandle handle) {
+        this.name = name;
+        this.arity = handle.type().parameterCount();
+        this.handle = handle;
+        this.spread = handle.asSpreader(Object[].class, arity);
+    }
+
+    static void install(GlobalEnvironment globals, Class<?> module) {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        for (Method method : module.getDeclaredMethods()) {
+            Native annotation = method.getAnnotation(Native.class);
+            if (annotation == null) continue;
+            if (!Modifier.isStatic(method.getModifiers())) {
+                throw new IllegalArgumentException("Native '" + method.getName() + "' must be static.");
+            }
+
+            String name = annotation.value().isEmpty() ? method.getName() : annotation.value();
+            try {
+                globals.define(name, new NativeFunction(name, adapt(name, lookup.unreflect(method))));
+            } catch (IllegalAccessException e) {
+                throw new IllegalArgumentException("Native '" + name + "' is not accessible.", e);
+            }
+        }
+    }
+
+    private static MethodHandle adapt(String name, MethodHandle target) {
+        MethodType type = target.type();
+        MethodHandle[] filters = new MethodHandle[type.parameterCount()];
+        for (int i = 0; i < filters.length; i++) {
+            Class<?> parameter = type.parameterType(i);
+            if (parameter == double.class) filters[i] = NUMBER;
+            else if (parameter == String.class) filters[i] = STRING;
+            else if (parameter == boolean.class) filters[i] = BOOLEAN;
+            else if (parameter != Object.class) {
+                throw new IllegalArgumentException("Native '" + name + "' takes unsupported type " + parameter.getSimpleName() + ".");
+            }
+        }
+        MethodHandle adapted = MethodHandles.filterArguments(target, 0, filters);
+
+        Class<?> result = type.returnType();
+        if (result == void.class) {
+            adapted = MethodHandles.filterReturnValue(adapted, NIL);
+        } else if (result != double.class && result != boolean.class && result != String.class && result != Object.class) {
+            throw new IllegalArgumentException("Native '" + name + "' returns unsupported type " + result.getSimpleName() + ".");
+        }
+        return adapted.asType(MethodType.genericMethodType(filters.length));
+    }
+
+    private static double number(Object value) {
+        if (value instanceof Double) return (double) value;
+        throw new RuntimeError("Argument must be a number.");
+    }
+
+    private static String string(Object value) {
+        if (value instanceof CharSequence) return value.toString();
+        throw new RuntimeError("Argument must be a string.");
+    }
+
+    private static boolean bool(Object value) {
+        if (value instanceof Boolean) return (boolean) value;
+        throw new RuntimeError("Argument must be a boolean.");
+    }
+
+    @Override
+    public int arity() {
+        return arity;
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, Object[] arguments) {
+        try {
+            return spread.invokeExact(arguments);
+        } catch (RuntimeException | Error error) {
+            throw error;
+        } catch (Throwable error) {
+            throw new IllegalStateException(error);
+        }
+    }
+
+    @Override
+    public Object call0(Interpreter interpreter) {
+        try {
+            return handle.invokeExact();
+        } catch (RuntimeException | Error error) {
+            throw error;
+        } catch (Throwable error) {
+            throw new IllegalStateException(error);
+        }
+    }
+
+    @Override
+    public Object call1(Interpreter interpreter, Object a) {
+        try {
+            return handle.invokeExact(a);
+        } catch (RuntimeException | Error error) {
+            throw error;
+        } catch (Throwable error) {
+            throw new IllegalStateException(error);
+        }
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter, Object a, Object b) {
+        try {
+            return handle.invokeExact(a, b);
+        } catch (RuntimeException | Error error) {
+            throw error;
+        } catch (Throwable error) {
+            throw new IllegalStateException(error);
+        }
+    }
+
+    @Override
+    public Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+        try {
+            return handle.invokeExact(a, b, c);
+        } catch (RuntimeException | Error error) {
+            throw error;
+        } catch (Throwable error) {
+            throw new IllegalStateException(error);
+        }
+    }
+
+    @Override
+    public Object call4(Interpreter interpreter, Object a, Object b, Object c, Object d) {
+        try {
+            return handle.invokeExact(a, b, c, d);
+        } catch (RuntimeException | Error error) {
+            throw error;
+        } catch (Throwable error) {
+            throw new IllegalStateException(error);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "<native " + name + " fn>";
+    }
+}
@@ -0,0 +1,123 @@
+package lox;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import static lox.TokenType.*;
+
+class ParallelFrontEnd {
+    private static final int MIN_SEGMENT = 4096;
+
+    private final Resolver resolver;
+    private final boolean lazy;
+    private final ForkJoinPool pool;
+
+    private static class Segment {
+        final List<Token> tokens;
+        final List<Runnable> reports = new ArrayList<>();
+        List<Stmt> statements;
+        Resolver resolver;
+
+        Segment(List<Token> tokens) {
+            this.tokens = tokens;
+        }
+    }
+
+    ParallelFrontEnd(Resolver resolver, boolean lazy) {
+        this(resolver, lazy, ForkJoinPool.commonPool());
+    }
+
+    ParallelFrontEnd(Resolver resolver, boolean lazy, ForkJoinPool pool) {
+        this.resolver = resolver;
+        this.lazy = lazy;
+        this.pool = pool;
+    }
+
+    List<Stmt> run(List<Token> tokens) {
+        List<Segment> segments = split(tokens);
+        if (segments.size() < 2) return sequential(tokens);
+
+        List<ForkJoinTask<?>> tasks = new ArrayList<>(segments.size());
+        for (Segment segment : segments) {
+            tasks.add(pool.submit(() -> deferring(segment.reports, () -> {
+                segment.statements = new Parser(segment.tokens, lazy).parse();
+            })));
+        }
+        join(tasks);
+        for (Segment segment : segments) {
+            if (!segment.reports.isEmpty()) return sequential(tokens);
+        }
+
+        tasks.clear();
+        for (Segment segment : segments) {
+            segment.resolver = resolver.fork();
+            tasks.add(pool.submit(() -> deferring(segment.resolver.effects(), () -> segment.resolver.resolve(segment.statements))));
+        }
+        join(tasks);
+
+        List<Stmt> statements = new ArrayList<>();
+        for (Segment segment : segments) {
+            resolver.commit(segment.resolver);
+            statements.addAll(segment.statements);
+        }
+        return statements;
+    }
+
+    private List<Stmt> sequential(List<Token> tokens) {
+        List<Stmt> statements = new Parser(tokens, lazy).parse();
+        resolver.resolve(statements);
+        return statements;
+    }
+
+    private List<Segment> split(List<Token> tokens) {
+        List<Segment> segments = new ArrayList<>();
+        int depth = 0;
+        int start = 0;
+        int end = tokens.size() - 1;
+        for (int i = 0; i < end; i++) {
+            Token token = tokens.get(i);
+            switch (token.type) {
+                case LEFT_PAREN: case LEFT_BRACE: depth++; break;
+                case RIGHT_PAREN: case RIGHT_BRACE: depth--; break;
+                default: break;
+            }
+            if (depth != 0 || i - start < MIN_SEGMENT || !startsDeclaration(tokens, i + 1)) continue;
+            segments.add(segment(tokens, start, i + 1));
+            start = i + 1;
+        }
+        if (segments.isEmpty()) return segments;
+        segments.add(segment(tokens, start, end));
+        return segments;
+    }
+
+    private static boolean startsDeclaration(List<Token> tokens, int index) {
+        TokenType previous = tokens.get(index - 1).type;
+        if (previous != SEMICOLON && previous != RIGHT_BRACE) return false;
+        Token token = tokens.get(index);
+        if (token.type == CLASS) return true;
+        return token.type == FUN && tokens.get(index + 1).type == IDENTIFIER;
+    }
+
+    private static Segment segment(List<Token> tokens, int from, int to) {
+        List<Token> range = new ArrayList<>(to - from + 1);
+        range.addAll(tokens.subList(from, to));
+        range.add(new Token(EOF, "", null, tokens.get(to - 1).line));
+        return new Segment(range);
+    }
+
+    private static void deferring(List<Runnable> reports, Runnable work) {
+        Lox.deferReports(reports);
+        try {
+            work.run();
+        } finally {
+            Lox.deferReports(null);
+        }
+    }
+
+    private static void join(List<ForkJoinTask<?>> tasks) {
+        for (ForkJoinTask<?> task : tasks) {
+            task.join();
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package lox;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import static lox.TokenType.*;
+
+class ParallelScanner {
+    private static final int MIN_CHUNK = 1 << 16;
+
+    private final String source;
+    private final ForkJoinPool pool;
+
+    private static class Chunk {
+        List<Token> tokens;
+        final List<Runnable> errors = new ArrayList<>();
+        int openAt = -1;
+        int openLine;
+    }
+
+    ParallelScanner(String source) {
+        this(source, ForkJoinPool.commonPool());
+    }
+
+    ParallelScanner(String source, ForkJoinPool pool) {
+        this.source = source;
+        this.pool = pool;
+    }
+
+    List<Token> scanTokens() {
+        int[] bounds = split();
+        int chunks = bounds.length - 1;
+        if (chunks == 1) return new Scanner(source).scanTokens();
+
+        int[] lines = new int[chunks + 1];
+        List<ForkJoinTask<?>> tasks = new ArrayList<>(chunks);
+        for (int i = 0; i < chunks; i++) {
+            int index = i;
+            tasks.add(pool.submit(() -> { lines[index + 1] = newlines(bounds[index], bounds[index + 1]); }));
+        }
+        join(tasks);
+        lines[0] = 1;
+        for (int i = 1; i <= chunks; i++) {
+            lines[i] += lines[i - 1];
+        }
+
+        Chunk[] results = new Chunk[chunks];
+        tasks.clear();
+        for (int i = 0; i < chunks; i++) {
+            int index = i;
+            tasks.add(pool.submit(() -> { results[index] = scan(bounds[index], bounds[index + 1], lines[index]); }));
+        }
+        join(tasks);
+
+        int size = 1;
+        for (Chunk chunk : results) {
+            size += chunk.tokens.size();
+        }
+        List<Token> tokens = new ArrayList<>(size);
+        for (int i = 0; i < chunks; i++) {
+            Chunk chunk = results[i];
+            for (Runnable error : chunk.errors) {
+                error.run();
+            }
+            tokens.addAll(chunk.tokens);
+            if (chunk.openAt >= 0) {
+                results[i + 1] = scan(chunk.openAt, bounds[i + 2], chunk.openLine);
+            }
+        }
+        tokens.add(new Token(EOF, "", null, lines[chunks]));
+        return tokens;
+    }
+
+    private int[] split() {
+        int length = source.length();
+        int chunks = Math.max(1, Math.min(pool.getParallelism() * 4, length / MIN_CHUNK));
+        List<Integer> bounds = new ArrayList<>(chunks + 1);
+        bounds.add(0);
+        for (int i = 1; i < chunks; i++) {
+            int at = source.indexOf('\n', (int) ((long) length * i / chunks));
+            if (at < 0) break;
+            if (at + 1 > bounds.get(bounds.size() - 1) && at + 1 < length) bounds.add(at + 1);
+        }
+        bounds.add(length);
+
+        int[] result = new int[bounds.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = bounds.get(i);
+        }
+        return result;
+    }
+
+    private int newlines(int from, int to) {
+        int count = 0;
+        for (int i = from; i < to; i++) {
+            if (source.charAt(i) == '\n') count++;
+        }
+        return count;
+    }
+
+    private Chunk scan(int from, int to, int line) {
+        Chunk chunk = new Chunk();
+        Scanner scanner = new Scanner(source, from, to, line);
+        chunk.tokens = scanner.scanChunk(chunk.errors);
+        chunk.openAt = scanner.openAt;
+        chunk.openLine = scanner.openLine;
+        return chunk;
+    }
+
+    private static void join(List<ForkJoinTask<?>> tasks) {
+        for (ForkJoinTask<?> task : tasks) {
+            task.join();
+        }
+    }
+}
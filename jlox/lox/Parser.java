@@ -3,16 +3,94 @@ package lox;
 import static lox.TokenType.*;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 public class Parser {
     private final List<Token> tokens;
     private int current = 0;
     private int loop_depth = 0;
+    private int nesting = 0;
+    private final boolean lazy;
 
     private static class ParseError extends RuntimeException {}
+
+    private enum Precedence {
+        COMMA,
+        ASSIGNMENT,
+        LAMBDA,
+        OR,
+        AND,
+        TERNARY,
+        EQUALITY,
+        COMPARISON,
+        TERM,
+        MODULO,
+        FACTOR,
+        BITWISE,
+        SHIFT,
+        UNARY,
+        CALL
+    }
+
+    private interface Prefix {
+        Expr parse(Parser parser, Token token);
+    }
+
+    private interface Infix {
+        Expr parse(Parser parser, Expr left, Token operator);
+    }
+
+    private static final Prefix[] PREFIX = new Prefix[TokenType.values().length];
+    private static final Infix[] INFIX = new Infix[TokenType.values().length];
+    private static final Precedence[] PRECEDENCE = new Precedence[TokenType.values().length];
+
+    static {
+        prefix(Parser::literal, FALSE, TRUE, NIL, NUMBER, STRING);
+        prefix(Parser::grouping, LEFT_PAREN);
+        prefix(Parser::superExpr, SUPER);
+        prefix(Parser::thisExpr, THIS);
+        prefix(Parser::variable, IDENTIFIER);
+        prefix(Parser::unary, BANG, MINUS);
+        prefix(Parser::lambda, FUN);
+
+        infix(Precedence.COMMA, Parser::comma, COMMA);
+        infix(Precedence.ASSIGNMENT, Parser::assign, EQUAL);
+        infix(Precedence.OR, Parser::logical, OR);
+        infix(Precedence.AND, Parser::logical, AND);
+        infix(Precedence.TERNARY, Parser::ternary, QUESTION_MARK);
+        infix(Precedence.EQUALITY, Parser::binary, BANG_EQUAL, EQUAL_EQUAL);
+        infix(Precedence.COMPARISON, Parser::binary, GREATER, GREATER_EQUAL, LESS, LESS_EQUAL);
+        infix(Precedence.TERM, Parser::binary, MINUS, PLUS);
+        infix(Precedence.MODULO, Parser::binary, MODULO);
+        infix(Precedence.FACTOR, Parser::binary, SLASH, STAR);
+        infix(Precedence.BITWISE, Parser::binary, BITWISE_OR, BITWISE_AND, BITWISE_XOR);
+        infix(Precedence.SHIFT, Parser::binary, LEFT_SHIFT, RIGHT_SHIFT);
+        infix(Precedence.CALL, Parser::call, LEFT_PAREN);
+        infix(Precedence.CALL, Parser::get, DOT);
+    }
+
+    private static void prefix(Prefix rule, TokenType... types) {
+        for (TokenType type : types) {
+            PREFIX[type.ordinal()] = rule;
+        }
+    }
+
+    private static void infix(Precedence precedence, Infix rule, TokenType... types) {
+        for (TokenType type : types) {
+            INFIX[type.ordinal()] = rule;
+            PRECEDENCE[type.ordinal()] = precedence;
+        }
+    }
+
     Parser(List<Token> tokens) {
+        this(tokens, false);
+    }
+
+    Parser(List<Token> tokens, boolean lazy) {
         this.tokens = tokens;
+        this.lazy = lazy;
     }
 
     List<Stmt> parse() {
@@ -23,6 +101,10 @@ public class Parser {
         return statements;
     }
 
+    List<Stmt> body() {
+        return block();
+    }
+
     Expr replParse() {
         Expr expr = expression();
         return expr;
@@ -163,6 +245,18 @@ public class Parser {
         List<Stmt.Function> getters = new ArrayList<>();
         List<Stmt.Function> staticGetters = new ArrayList<>();
     
+        nesting++;
+        try {
+            classBody(methods, staticMethods, getters, staticGetters);
+        } finally {
+            nesting--;
+        }
+    
+        consume(RIGHT_BRACE, "Expected '}' after class body.");
+        return new Stmt.Class(name, superclass, methods, staticMethods, getters, staticGetters);
+    }
+
+    private void classBody(List<Stmt.Function> methods, List<Stmt.Function> staticMethods, List<Stmt.Function> getters, List<Stmt.Function> staticGetters) {
         while (!check(RIGHT_BRACE) && !isAtEnd()) {
             boolean isStatic = match(STATIC);
             Token methodName = consume(IDENTIFIER, "Expect method name.");
@@ -183,9 +277,6 @@ public class Parser {
                 throw error(peek(), "Expect '(' for method or '{' for getter.");
             }
         }
-    
-        consume(RIGHT_BRACE, "Expected '}' after class body.");
-        return new Stmt.Class(name, superclass, methods, staticMethods, getters, staticGetters);
     }
     
 
@@ -214,7 +305,7 @@ public class Parser {
         consume(RIGHT_PAREN, "Expect ')' after parameters.");
         
         consume(LEFT_BRACE, "Expect '{' before " + kind + " body.");
-        List<Stmt> body = block();
+        List<Stmt> body = functionBody(name);
         
         return new Stmt.Function(name, parameters, body);
     }
@@ -234,229 +325,178 @@ public class Parser {
     private List<Stmt> block() {
         List <Stmt> statements = new ArrayList<>();
 
-        while (!check(RIGHT_BRACE) && !isAtEnd()) {
-            statements.add(declaration());
+        nesting++;
+        try {
+            while (!check(RIGHT_BRACE) && !isAtEnd()) {
+                statements.add(declaration());
+            }
+        } finally {
+            nesting--;
         }
 
         consume(RIGHT_BRACE, "Expect '}' after block.");
         return statements;
     }
 
-    private boolean match(TokenType... types) {
-        for (TokenType type : types) {
-            if (check(type)) {
-                advance();
-                return true;
+    private List<Stmt> functionBody(Token name) {
+        if (!lazy || nesting > 0 || loop_depth > 0) return block();
+
+        int start = current;
+        int depth = 1;
+        Set<String> assigned = new HashSet<>();
+        while (!isAtEnd() && depth > 0) {
+            Token token = advance();
+            if (token.type == LEFT_BRACE) depth++;
+            if (token.type == RIGHT_BRACE) depth--;
+            if (token.type == EQUAL && tokens.get(current - 2).type == IDENTIFIER) {
+                assigned.add(tokens.get(current - 2).lexeme);
             }
         }
+        if (depth > 0) throw error(peek(), "Expect '}' after block.");
+
+        List<Token> body = new ArrayList<>(tokens.subList(start, current));
+        body.add(new Token(EOF, "", null, previous().line));
+        return new LazyBody(name, body, assigned);
+    }
+
+    private boolean match(TokenType type) {
+        if (check(type)) {
+            advance();
+            return true;
+        }
         return false;
     }
 
     private Expr expression() {
-        return comma();
+        return parsePrecedence(Precedence.COMMA);
     }
-    
-    private Expr comma() {
-        Expr expr = assignment();
-        while (match(COMMA)) {
-            Token operator = previous();
-            if (expr == null) {
-                Lox.error(peek(), "Missing left-hand operand.");
-            }
-            Expr right = assignment();
-            expr = new Expr.Binary(expr, operator, right);
-        }
-        return expr;
-    }
-    
+
     private Expr assignment() {
-        Expr expr = lambda();
-        if (match(EQUAL)) {
-            Token equals = previous();
-            Expr value = assignment();
-            if (expr instanceof Expr.Variable) {
-                Token name = ((Expr.Variable) expr).name;
-                return new Expr.Assign(name, value);
-            } else if (expr instanceof Expr.Get) {
-                Expr.Get get = (Expr.Get) expr;
-                return new Expr.Set(get.object, get.name, value);
-            }
-            error(equals, "Invalid assignment target.");
-        }
-        return expr;
+        return parsePrecedence(Precedence.ASSIGNMENT);
     }
-    
-    private Expr lambda() {
-        if (match(FUN)) {
-            consume(LEFT_PAREN, "Expect '(' after 'fun'.");
-            List<Token> parameters = new ArrayList<>();
-            if (!check(RIGHT_PAREN)) {
-                do {
-                    if (parameters.size() >= 255) {
-                        error(peek(), "Cannot have more than 255 parameters.");
-                    }
-                    parameters.add(consume(IDENTIFIER, "Expect parameter name."));
-                } while (match(COMMA));
-            }
-            consume(RIGHT_PAREN, "Expect ')' after parameters.");
-            consume(LEFT_BRACE, "Expect '{' before lambda body.");
-            List<Stmt> body = block();
-            return new Expr.Lambda(parameters, body);
+
+    private Expr parsePrecedence(Precedence minimum) {
+        Token token = peek();
+        Expr expr = null;
+        Precedence ceiling = Precedence.CALL;
+        Prefix prefix = PREFIX[token.type.ordinal()];
+        if (prefix != null && (token.type != FUN || minimum.compareTo(Precedence.LAMBDA) <= 0)) {
+            advance();
+            expr = prefix.parse(this, token);
+            if (token.type == FUN) ceiling = Precedence.ASSIGNMENT;
         }
-        return or();
-    }
-    
-    private Expr or() {
-        Expr expr = and();
-        while (match(OR)) {
-            Token operator = previous();
-            Expr right = and();
-            expr = new Expr.Logical(expr, operator, right);
+
+        while (true) {
+            Token operator = peek();
+            Precedence precedence = PRECEDENCE[operator.type.ordinal()];
+            if (precedence == null || precedence.compareTo(minimum) < 0 || precedence.compareTo(ceiling) > 0) break;
+            advance();
+            expr = INFIX[operator.type.ordinal()].parse(this, expr, operator);
         }
         return expr;
     }
 
-    private Expr and() {
-        Expr expr = ternary();
-        while (match(AND)) {
-            Token operator = previous();
-            Expr right = ternary();
-            expr = new Expr.Logical(expr, operator, right);
+    private Expr comma(Expr left, Token operator) {
+        if (left == null) {
+            Lox.error(peek(), "Missing left-hand operand.");
         }
-        return expr;
+        Expr right = parsePrecedence(Precedence.ASSIGNMENT);
+        return new Expr.Binary(left, operator, right);
     }
-    
-    private Expr ternary() {
-        Expr expr = equality();
-        if (match(QUESTION_MARK)) {
-            Token operator = previous();
-            Expr left = ternary();
-            consume(COLON, "Expect ':' after true branch.");
-            Expr right = ternary();
-            return new Expr.Ternary(expr, left, right, operator);
+
+    private Expr assign(Expr target, Token equals) {
+        Expr value = parsePrecedence(Precedence.ASSIGNMENT);
+        if (target instanceof Expr.Variable) {
+            Token name = ((Expr.Variable) target).name;
+            return new Expr.Assign(name, value);
+        } else if (target instanceof Expr.Get) {
+            Expr.Get get = (Expr.Get) target;
+            return new Expr.Set(get.object, get.name, value);
         }
-        return expr;
+        error(equals, "Invalid assignment target.");
+        return target;
     }
-    
-    private Expr equality() {
-        Expr expr = comparison();
-        while (match(BANG_EQUAL, EQUAL_EQUAL)) {
-            Token operator = previous();
-            Expr right = comparison();
-            expr = new Expr.Binary(expr, operator, right);
+
+    private Expr lambda(Token keyword) {
+        consume(LEFT_PAREN, "Expect '(' after 'fun'.");
+        List<Token> parameters = new ArrayList<>();
+        if (!check(RIGHT_PAREN)) {
+            do {
+                if (parameters.size() >= 255) {
+                    error(peek(), "Cannot have more than 255 parameters.");
+                }
+                parameters.add(consume(IDENTIFIER, "Expect parameter name."));
+            } while (match(COMMA));
         }
-        return expr;
+        consume(RIGHT_PAREN, "Expect ')' after parameters.");
+        consume(LEFT_BRACE, "Expect '{' before lambda body.");
+        List<Stmt> body = functionBody(keyword);
+        return new Expr.Lambda(keyword, parameters, body);
     }
 
-    private Expr comparison() {
-        Expr expr = term();
-        while (match(GREATER, GREATER_EQUAL, LESS, LESS_EQUAL)) {
-            Token operator = previous();
-            Expr right = term();
-            expr = new Expr.Binary(expr, operator, right);
-        }
-        return expr;
+    private Expr logical(Expr left, Token operator) {
+        Expr right = parsePrecedence(next(operator));
+        return new Expr.Logical(left, operator, right);
     }
 
-    private Expr term() {
-        Expr expr = bound();
-        while (match(MINUS, PLUS)) {
-            Token operator = previous();
-            Expr right = bound();
-            expr = new Expr.Binary(expr, operator, right);
-        }
-        return expr;
+    private Expr ternary(Expr condition, Token operator) {
+        Expr left = parsePrecedence(Precedence.TERNARY);
+        consume(COLON, "Expect ':' after true branch.");
+        Expr right = parsePrecedence(Precedence.TERNARY);
+        return new Expr.Ternary(condition, left, right, operator);
     }
 
-    private Expr bound() {
-        Expr expr = factor();
-        while (match(MODULO)) {
-            Token operator = previous();
-            Expr right = factor();
-            expr = new Expr.Binary(expr, operator, right);
-        }
-        return expr;
+    private Expr binary(Expr left, Token operator) {
+        Expr right = parsePrecedence(next(operator));
+        return new Expr.Binary(left, operator, right);
     }
-    
-    private Expr factor() {
-        Expr expr = binary();
-        while (match(SLASH, STAR)) {
-            Token operator = previous();
-            Expr right = binary();
-            expr = new Expr.Binary(expr, operator, right);
-        }
-        return expr;
+
+    private static Precedence next(Token operator) {
+        return Precedence.values()[PRECEDENCE[operator.type.ordinal()].ordinal() + 1];
     }
 
-    private Expr binary() {
-        Expr expr = shift();
-        while (match(BITWISE_OR, BITWISE_AND, BITWISE_XOR)) {
-            Token operator = previous();
-            Expr right = shift();
-            expr = new Expr.Binary(expr, operator, right);
-        }
-        return expr;
+    private Expr unary(Token operator) {
+        Expr right = parsePrecedence(Precedence.UNARY);
+        return new Expr.Unary(operator, right);
     }
-    
-    private Expr shift() {
-        Expr expr = unary();
-        while (match(LEFT_SHIFT, RIGHT_SHIFT)) {
-            Token operator = previous();
-            Expr right = unary();
-            expr = new Expr.Binary(expr, operator, right);
-        }
-        return expr;
+
+    private Expr call(Expr callee, Token paren) {
+        return finishCall(callee);
     }
-    
-    private Expr unary() {
-        if (match(BANG, MINUS)) {
-            Token operator = previous();
-            Expr right = unary();
-            return new Expr.Unary(operator, right);
-        }
-        return call();
+
+    private Expr get(Expr object, Token dot) {
+        Token name = consume(IDENTIFIER, "Expect property name after '.'");
+        return new Expr.Get(object, name);
     }
-    
-    private Expr call() {
-        Expr expr = primary();
 
-        while (true) {
-            if (match(LEFT_PAREN)) {
-                expr = finishCall(expr);
-            } else if (match(DOT)) {
-                Token name = consume(IDENTIFIER, "Expect property name after '.'");
-                expr = new Expr.Get(expr, name);
-            }
-            else break;
+    private Expr literal(Token token) {
+        switch (token.type) {
+            case FALSE: return new Expr.Literal(false);
+            case TRUE: return new Expr.Literal(true);
+            case NIL: return new Expr.Literal(null);
+            default: return new Expr.Literal(token.literal);
         }
+    }
 
-        return expr;
+    private Expr grouping(Token paren) {
+        Expr expr = expression();
+        consume(RIGHT_PAREN, "Expect ')' after expression.");
+        return new Expr.Grouping(expr);
     }
 
-    private Expr primary() {
-        if (match(FALSE)) return new Expr.Literal(false);
-        if (match(TRUE)) return new Expr.Literal(true);
-        if (match(NIL)) return new Expr.Literal(null);
-        if (match(NUMBER, STRING)) {
-            return new Expr.Literal(previous().literal);
-        }
-        if (match(LEFT_PAREN)) {
-            Expr expr = expression();
-            consume(RIGHT_PAREN, "Expect ')' after expression.");
-            return new Expr.Grouping(expr);
-        }
-        if (match(SUPER)) {
-            Token keyword = previous();
-            consume(DOT, "Expect '.' after 'super'.");
-            Token method = consume(IDENTIFIER,
-                "Expect superclass method name.");
-            return new Expr.Super(keyword, method);
-          }
-        if (match(THIS)) return new Expr.This(previous());
-        if (match(IDENTIFIER)) {
-            return new Expr.Variable(previous());
-        }
-        return null;
+    private Expr superExpr(Token keyword) {
+        consume(DOT, "Expect '.' after 'super'.");
+        Token method = consume(IDENTIFIER,
+            "Expect superclass method name.");
+        return new Expr.Super(keyword, method);
+    }
+
+    private Expr thisExpr(Token keyword) {
+        return new Expr.This(keyword);
+    }
+
+    private Expr variable(Token name) {
+        return new Expr.Variable(name);
     }
 
     private Expr finishCall(Expr callee) {
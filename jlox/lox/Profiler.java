@@ -0,0 +1,139 @@
+package lox;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+class Profiler {
+    private static final String ROOT = "<script>";
+
+    private final long intervalMicros;
+    private final Map<String, Integer> stacks = new HashMap<>();
+    private final Map<String, Integer> selfSamples = new HashMap<>();
+    private final Map<String, Integer> totalSamples = new HashMap<>();
+    private volatile String[] names = new String[64];
+    private volatile int[] lines = new int[64];
+    private volatile int depth = 0;
+    private volatile boolean running = false;
+    private Thread sampler;
+    private int samples = 0;
+
+    Profiler(long intervalMicros) {
+        this.intervalMicros = intervalMicros;
+    }
+
+    void enter(LoxCallable callee, Token site) {
+        int top = depth;
+        if (top == names.length) grow();
+        names[top] = frameName(callee);
+        lines[top] = site.line;
+        depth = top + 1;
+    }
+
+    void exit() {
+        depth = depth - 1;
+    }
+
+    void start() {
+        running = true;
+        sampler = new Thread(this::sampleLoop, "lox-profiler");
+        sampler.setDaemon(true);
+        sampler.start();
+    }
+
+    void stop() {
+        running = false;
+        try {
+            sampler.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    void writeCollapsed(String path) throws IOException {
+        try (PrintWriter writer = new PrintWriter(path, "UTF-8")) {
+            for (Map.Entry<String, Integer> entry : stacks.entrySet()) {
+                writer.println(entry.getKey() + " " + entry.getValue());
+            }
+        }
+    }
+
+    void printTable(PrintStream out) {
+        List<String> functions = new ArrayList<>(totalSamples.keySet());
+        functions.sort((a, b) -> selfSamples.getOrDefault(b, 0) - selfSamples.getOrDefault(a, 0));
+
+        double millisPerSample = intervalMicros / 1000.0;
+        out.println(String.format("%-40s %10s %7s %10s %7s", "function", "self ms", "self %", "total ms", "total %"));
+        for (String function : functions) {
+            int self = selfSamples.getOrDefault(function, 0);
+            int total = totalSamples.get(function);
+            out.println(String.format("%-40s %10.1f %6.1f%% %10.1f %6.1f%%", function,
+                self * millisPerSample, percent(self), total * millisPerSample, percent(total)));
+        }
+        out.println(samples + " samples at " + intervalMicros + "us.");
+    }
+
+    private double percent(int count) {
+        return samples == 0 ? 0 : 100.0 * count / samples;
+    }
+
+    private void sampleLoop() {
+        while (running) {
+            sample();
+            try {
+                Thread.sleep(intervalMicros / 1000, (int)(intervalMicros % 1000) * 1000);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void sample() {
+        String[] currentNames = names;
+        int[] currentLines = lines;
+        int size = Math.min(depth, Math.min(currentNames.length, currentLines.length));
+
+        StringBuilder stack = new StringBuilder(ROOT);
+        Set<String> seen = new HashSet<>();
+        seen.add(ROOT);
+        String top = ROOT;
+        for (int i = 0; i < size; i++) {
+            String name = currentNames[i];
+            if (name == null) continue;
+            stack.append(';').append(name).append(':').append(currentLines[i]);
+            seen.add(name);
+            top = name;
+        }
+
+        samples++;
+        stacks.merge(stack.toString(), 1, Integer::sum);
+        selfSamples.merge(top, 1, Integer::sum);
+        for (String function : seen) {
+            totalSamples.merge(function, 1, Integer::sum);
+        }
+    }
+
+    private void grow() {
+        String[] grownNames = new String[names.length * 2];
+        int[] grownLines = new int[lines.length * 2];
+        System.arraycopy(names, 0, grownNames, 0, names.length);
+        System.arraycopy(lines, 0, grownLines, 0, lines.length);
+        lines = grownLines;
+        names = grownNames;
+    }
+
+    private static String frameName(LoxCallable callee) {
+        if (callee instanceof LoxFunction function) return function.name();
+        if (callee instanceof LoxClass klass) {
+            LoxFunction initializer = klass.findMethod("init");
+            return initializer == null ? klass.name : initializer.name();
+        }
+        return callee.toString();
+    }
+}
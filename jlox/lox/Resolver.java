@@ -1,6 +1,10 @@
 package lox;
 
 import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Stack;
@@ -11,14 +15,64 @@ import lox.Stmt.*;
 public class Resolver implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
     private final Interpreter interpreter;
     private final Stack<Map<String, VariableState>> scopes = new Stack<>();
+    private final Stack<Map<String, Var>> declarations = new Stack<>();
+    private final Stack<Map<String, List<Assign>>> stores = new Stack<>();
+    private final Stack<Frame> frames = new Stack<>();
     private FunctionType currentFunction = FunctionType.NONE;
     private LoopType currentLoop = LoopType.NONE;
     private ClassType currentClass = ClassType.NONE;
+    private List<Stmt> currentBody = null;
+    private final Map<String, Integer> globalDefinitions = new HashMap<>();
+    private final Map<String, Stmt> bindableGlobals = new HashMap<>();
+    private final java.util.Set<String> assignedGlobals = new HashSet<>();
+    private final java.util.Set<Expr> resolvedLocals = java.util.Collections.newSetFromMap(new IdentityHashMap<>());
+    private List<Runnable> effects;
 
     Resolver(Interpreter interpreter) {
         this.interpreter = interpreter;
     }
 
+    private Resolver(Interpreter interpreter, List<Runnable> effects) {
+        this.interpreter = interpreter;
+        this.effects = effects;
+    }
+
+    Resolver fork() {
+        return new Resolver(interpreter, new ArrayList<>());
+    }
+
+    List<Runnable> effects() {
+        return effects;
+    }
+
+    void commit(Resolver fork) {
+        for (Runnable effect : fork.effects) {
+            effect.run();
+        }
+        fork.effects = null;
+        fork.resolvedLocals.clear();
+        fork.globalDefinitions.forEach((name, count) -> globalDefinitions.merge(name, count, Integer::sum));
+        bindableGlobals.putAll(fork.bindableGlobals);
+        assignedGlobals.addAll(fork.assignedGlobals);
+    }
+
+    private void effect(Runnable effect) {
+        if (effects == null) {
+            effect.run();
+        } else {
+            effects.add(effect);
+        }
+    }
+
+    private static class Frame {
+        final int base;
+        final Map<String, Integer> captures = new LinkedHashMap<>();
+
+        Frame(int base) {
+            this.base = base;
+        }
+    }
+
     private enum FunctionType {
         NONE,
         FUNCTION,
@@ -54,23 +108,36 @@ public class Resolver implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
 
     @Override
     public Stmt visitVarStmt(Var stmt) {
+        defineGlobal(stmt.name, null);
         declare(stmt.name);
         if (stmt.initializer != null) {
             resolve(stmt.initializer);
         }
         define(stmt.name);
+        if (!scopes.empty()) declarations.peek().put(stmt.name.lexeme, stmt);
         return null;
     }
 
     @Override
     public Expr visitAssignExpr(Assign expr) {
         resolve(expr.value);
-        resolveLocal(expr, expr.name);
+        if (!resolveLocal(expr, expr.name)) {
+            assignedGlobals.add(expr.name.lexeme);
+            return null;
+        }
+
+        for (int i = scopes.size() - 1; i >= 0; i--) {
+            if (scopes.get(i).containsKey(expr.name.lexeme)) {
+                stores.get(i).computeIfAbsent(expr.name.lexeme, name -> new ArrayList<>()).add(expr);
+                break;
+            }
+        }
         return null;
     }
 
     @Override
     public Stmt visitFunctionStmt(Function stmt) {
+        defineGlobal(stmt.name, stmt);
         declare(stmt.name);
         define(stmt.name);
 
@@ -105,6 +172,8 @@ public class Resolver implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
         
         resolve(stmt.condition);
         resolve(stmt.body);
+        List<Stmt> body = currentBody;
+        if (body != null) effect(() -> interpreter.markLoop(stmt, body));
 
         currentLoop = outerLoopType;
         return null;
@@ -128,6 +197,9 @@ public class Resolver implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
                 Lox.error(stmt.keyword, "Cant return  a value from an Initializer.");
             }
             resolve(stmt.value);
+            if (currentFunction != FunctionType.NONE && stmt.value instanceof Expr.Call) {
+                effect(() -> interpreter.markTailCall(stmt));
+            }
         }
         return null;
     }
@@ -137,6 +209,7 @@ public class Resolver implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
         ClassType enclosingClass = currentClass;
         currentClass = ClassType.CLASS;
 
+        defineGlobal(stmt.name, stmt);
         declare(stmt.name);
         define(stmt.name);
 
@@ -287,16 +360,40 @@ public class Resolver implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
 
     private void beginScope() {
         scopes.push(new HashMap<String, VariableState>());
+        declarations.push(new HashMap<>());
+        stores.push(new HashMap<>());
     }
 
     private void endScope() {
         Map<String, VariableState> scope = scopes.peek();
         for (Map.Entry<String, VariableState> entry : scope.entrySet()) {
             if (entry.getValue() != VariableState.USED) {
-                System.out.println("Local variable '" + entry.getKey() + "' is never used.");
+                String name = entry.getKey();
+                effect(() -> System.out.println("Local variable '" + name + "' is never used."));
+                eliminate(entry.getKey());
             }
         }
         scopes.pop();
+        declarations.pop();
+        stores.pop();
+    }
+
+    private void eliminate(String name) {
+        Var declaration = declarations.peek().get(name);
+        if (declaration == null) return;
+
+        boolean pure = declaration.initializer == null || isPure(declaration.initializer);
+        effect(() -> interpreter.markDeadVar(declaration, !pure));
+        for (Assign store : stores.peek().getOrDefault(name, List.of())) {
+            effect(() -> interpreter.markDeadStore(store));
+        }
+    }
+
+    private boolean isPure(Expr expr) {
+        if (expr instanceof Literal || expr instanceof Lambda || expr instanceof This) return true;
+        if (expr instanceof Grouping) return isPure(((Grouping) expr).expression);
+        if (expr instanceof Variable) return effects == null ? !interpreter.isGlobal(expr) : resolvedLocals.contains(expr);
+        return false;
     }
 
     private void resolve(Stmt stmt) {
@@ -313,6 +410,21 @@ public class Resolver implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
         }
     }
 
+    void markConstantGlobals() {
+        for (Map.Entry<String, Stmt> global : bindableGlobals.entrySet()) {
+            String name = global.getKey();
+            if (globalDefinitions.get(name) == 1 && !assignedGlobals.contains(name)) {
+                interpreter.markConstant(name, global.getValue());
+            }
+        }
+    }
+
+    private void defineGlobal(Token name, Stmt declaration) {
+        if (!scopes.empty()) return;
+        globalDefinitions.merge(name.lexeme, 1, Integer::sum);
+        if (declaration != null) bindableGlobals.put(name.lexeme, declaration);
+    }
+
     private void declare(Token name) {
         if(scopes.empty()) return;
 
@@ -329,13 +441,26 @@ public class Resolver implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
         scopes.peek().put(name.lexeme, VariableState.DEFINED);
     }
 
-    private void resolveLocal(Expr expr, Token name) {
+    private boolean resolveLocal(Expr expr, Token name) {
         for (int i = scopes.size()-1; i >= 0; i--) {
             if (scopes.get(i).containsKey(name.lexeme)) {
-                interpreter.resolve(expr, scopes.size()-1-i);
-                return;
+                int distance = distanceFrom(scopes.size()-1, frames.size()-1, name.lexeme, i);
+                if (effects != null) resolvedLocals.add(expr);
+                effect(() -> interpreter.resolve(expr, distance));
+                return true;
             }
         }
+        return false;
+    }
+
+    private int distanceFrom(int from, int frameIndex, String name, int scope) {
+        if (frameIndex < 0 || scope >= frames.get(frameIndex).base) return from - scope;
+
+        Frame frame = frames.get(frameIndex);
+        if (!frame.captures.containsKey(name)) {
+            frame.captures.put(name, distanceFrom(frame.base - 1, frameIndex - 1, name, scope));
+        }
+        return from - frame.base + 1;
     }
     
     private void resolveFunction(Stmt.Function function, FunctionType type) {
@@ -347,8 +472,18 @@ public class Resolver implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
     }    
 
     private void resolveFunctionBody(List<Token> params, List<Stmt> body, FunctionType type) {
+        if (LazyBody.isUnparsed(body)) {
+            assignedGlobals.addAll(((LazyBody) body).assigned);
+            ((LazyBody) body).defer(() -> resolveFunctionBody(params, body, type));
+            return;
+        }
+
         FunctionType enclosingFunction = currentFunction;
+        List<Stmt> enclosingBody = currentBody;
         currentFunction = type;
+        currentBody = body;
+        boolean method = type == FunctionType.METHOD || type == FunctionType.INITIALIZER || type == FunctionType.GETTER;
+        frames.push(new Frame(method ? scopes.size() - 1 : scopes.size()));
         beginScope();
         for (Token param : params) {
             declare(param);
@@ -356,7 +491,10 @@ public class Resolver implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
         }
         resolve(body);
         endScope();
+        Map<String, Integer> captures = frames.pop().captures;
+        effect(() -> interpreter.markCaptures(body, captures));
         currentFunction = enclosingFunction;
+        currentBody = enclosingBody;
     }
 
     @Override
@@ -367,6 +505,13 @@ public class Resolver implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
             Lox.error(expr.keyword,"Can't use 'super' in a class with no superclass.");
         }
         resolveLocal(expr, expr.keyword);
+        for (int i = scopes.size() - 1; i >= 0; i--) {
+            if (scopes.get(i).containsKey("this")) {
+                int distance = distanceFrom(scopes.size() - 1, frames.size() - 1, "this", i);
+                effect(() -> interpreter.resolveThis(expr, distance));
+                break;
+            }
+        }
         return null;
     }
 }
@@ -0,0 +1,81 @@
+package lox;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+final class Rope implements CharSequence {
+    private static final int SHORT_LENGTH = 64;
+
+    private CharSequence left;
+    private CharSequence right;
+    private String flat;
+    private final int length;
+
+    private Rope(CharSequence left, CharSequence right) {
+        this.left = left;
+        this.right = right;
+        this.length = left.length() + right.length();
+    }
+
+    static CharSequence concat(CharSequence left, CharSequence right) {
+        if (left.length() == 0) return right;
+        if (right.length() == 0) return left;
+        if (left.length() + right.length() <= SHORT_LENGTH) {
+            return left.toString() + right.toString();
+        }
+        return new Rope(left, right);
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        return toString().charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().subSequence(start, end);
+    }
+
+    @Override
+    public String toString() {
+        if (flat == null) flatten();
+        return flat;
+    }
+
+    @Override
+    public boolean equals(Object object) {
+        if (this == object) return true;
+        if (!(object instanceof CharSequence)) return false;
+        return toString().contentEquals((CharSequence) object);
+    }
+
+    @Override
+    public int hashCode() {
+        return toString().hashCode();
+    }
+
+    private void flatten() {
+        StringBuilder builder = new StringBuilder(length);
+        Deque<CharSequence> pending = new ArrayDeque<>();
+        pending.push(this);
+
+        while (!pending.isEmpty()) {
+            CharSequence piece = pending.pop();
+            if (piece instanceof Rope rope && rope.flat == null) {
+                pending.push(rope.right);
+                pending.push(rope.left);
+            } else {
+                builder.append(piece.toString());
+            }
+        }
+
+        flat = builder.toString();
+        left = null;
+        right = null;
+    }
+}
@@ -12,4 +12,9 @@ public class RuntimeError extends RuntimeException {
         super(message);
         this.token = null;
     }
+
+    RuntimeError at(Token token) {
+        if (this.token != null) return this;
+        return new RuntimeError(token, getMessage());
+    }
 }
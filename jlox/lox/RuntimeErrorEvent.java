@@ -0,0 +1,19 @@
+package lox;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("lox.RuntimeError")
+@Label("Lox Runtime Error")
+@Category("Lox")
+@StackTrace(false)
+class RuntimeErrorEvent extends Event {
+    @Label("Message")
+    String message;
+
+    @Label("Line")
+    int line;
+}
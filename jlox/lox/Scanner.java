@@ -9,9 +9,14 @@ import static lox.TokenType.*;
 class Scanner {
     private final String source;
     private final List<Token> tokens = new ArrayList<>();
+    private final int end;
     private int start = 0;
     private int current = 0;
     private int line = 1;
+    private int startLine = 1;
+    private List<Runnable> deferred;
+    int openAt = -1;
+    int openLine;
 
     private static final Map<String, TokenType> keywords;
 
@@ -38,7 +43,15 @@ class Scanner {
     }
 
     Scanner(String source) {
+        this(source, 0, source.length(), 1);
+    }
+
+    Scanner(String source, int start, int end, int line) {
         this.source = source;
+        this.start = start;
+        this.current = start;
+        this.end = end;
+        this.line = line;
     }
 
     List<Token> scanTokens() {
@@ -50,8 +63,33 @@ class Scanner {
         return tokens;
     }
 
+    List<Token> scanChunk(List<Runnable> errors) {
+        deferred = errors;
+        while (!isAtEnd() && openAt < 0) {
+            start = current;
+            startLine = line;
+            scanToken();
+        }
+        return tokens;
+    }
+
     private boolean isAtEnd() {
-        return current >= source.length();
+        return current >= end;
+    }
+
+    private boolean open() {
+        if (deferred == null || end == source.length()) return false;
+        openAt = start;
+        openLine = startLine;
+        return true;
+    }
+
+    private void error(int line, String message) {
+        if (deferred == null) {
+            Lox.error(line, message);
+        } else {
+            deferred.add(() -> Lox.error(line, message));
+        }
     }
 
     private void scanToken() {
@@ -137,8 +175,8 @@ class Scanner {
                         }
                     }
                 
-                    if (commentDepth > 0) {
-                        Lox.error(line, "Unterminated comment.");
+                    if (commentDepth > 0 && !open()) {
+                        error(line, "Unterminated comment.");
                     }
                 } else {
                     addToken(SLASH);
@@ -158,7 +196,7 @@ class Scanner {
                 } else if (isAlpha(c)) {
                     identifier();
                 } else {
-                    Lox.error(line, "Unexpected character.");
+                    error(line, "Unexpected character.");
                 }
                 break;
         }
@@ -190,7 +228,7 @@ class Scanner {
     }
 
     private char peekNext() {
-        if (current + 1 >= source.length()) return '\0';
+        if (current + 1 >= end) return '\0';
         return source.charAt(current + 1);
     }
 
@@ -201,7 +239,7 @@ class Scanner {
         }
 
         if (isAtEnd()) {
-            Lox.error(line, "Unterminated string.");
+            if (!open()) error(line, "Unterminated string.");
             return;
         }
         advance();
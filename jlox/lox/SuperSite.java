@@ -0,0 +1,25 @@
+package lox;
+
+class SuperSite {
+    final int distance;
+    final int thisDistance;
+    private LoxClass superclass;
+    private LoxFunction method;
+
+    SuperSite(int distance, int thisDistance) {
+        this.distance = distance;
+        this.thisDistance = thisDistance;
+    }
+
+    LoxFunction lookUp(LoxClass superclass, Token name) {
+        if (superclass != this.superclass) {
+            LoxFunction found = superclass.findMethod(name.lexeme);
+            if (found == null) {
+                throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
+            }
+            this.method = found;
+            this.superclass = superclass;
+        }
+        return method;
+    }
+}
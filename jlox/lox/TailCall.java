@@ -0,0 +1,11 @@
+package lox;
+
+class TailCall {
+    final LoxFunction function;
+    final Object[] arguments;
+
+    TailCall(LoxFunction function, Object[] arguments) {
+        this.function = function;
+        this.arguments = arguments;
+    }
+}
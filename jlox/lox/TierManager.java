@@ -0,0 +1,94 @@
+package lox;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+class TierManager {
+    int functionThreshold = 500;
+    int loopThreshold = 10000;
+    int deoptLimit = 100;
+    int recompileLimit = 3;
+
+    private final Interpreter interpreter;
+    private final Map<List<Stmt>, FunctionProfile> functions = new IdentityHashMap<>();
+    private Map<Stmt.While, List<Stmt>> loopOwners = new IdentityHashMap<>();
+    private final Map<Stmt.While, LoopProfile> loops = new IdentityHashMap<>();
+
+    TierManager(Interpreter interpreter) {
+        this.interpreter = interpreter;
+    }
+
+    FunctionProfile profileOf(List<Stmt> body) {
+        return functions.computeIfAbsent(body, key -> new FunctionProfile());
+    }
+
+    LoopProfile profileOf(Stmt.While loop) {
+        LoopProfile profile = loops.get(loop);
+        if (profile == null) {
+            List<Stmt> owner = loopOwners.get(loop);
+            profile = new LoopProfile(owner == null ? null : profileOf(owner));
+            loops.put(loop, profile);
+        }
+        return profile;
+    }
+
+    void markLoop(Stmt.While loop, List<Stmt> owner) {
+        loopOwners.put(loop, owner);
+    }
+
+    void releaseLoops() {
+        loopOwners = new IdentityHashMap<>();
+    }
+
+    void promote(FunctionProfile profile, List<Token> params, List<Stmt> body, Object[] arguments) {
+        profile.queued = true;
+        interpreter.metrics.increment("tier.promotions");
+        if (!interpreter.jit.request(profile, params, body, arguments)) {
+            interpreter.metrics.increment("tier.unsupported");
+        }
+    }
+
+    boolean countBackEdge(LoopProfile loop) {
+        return loop.backEdges < loopThreshold && ++loop.backEdges == loopThreshold;
+    }
+
+    void hotLoop(Stmt.While stmt, LoopProfile loop, Environment environment) {
+        interpreter.metrics.increment("tier.hot-loops");
+        if (loop.owner != null && !loop.owner.queued) {
+            loop.owner.calls = Math.max(loop.owner.calls, functionThreshold - 1);
+        }
+        if (!interpreter.jit.request(loop, stmt, environment)) {
+            interpreter.metrics.increment("tier.unsupported-loops");
+        }
+    }
+
+    boolean enterCompiled(LoopProfile loop, Environment environment) {
+        CompiledLoop compiled = loop.compiled;
+        if (compiled == null) return false;
+        if (compiled.run(interpreter, environment) != CompiledFunction.DEOPT) return true;
+
+        interpreter.metrics.increment("tier.loop-deopts");
+        if (++loop.deopts >= deoptLimit) loop.compiled = null;
+        return false;
+    }
+
+    void deoptimize(FunctionProfile profile) {
+        interpreter.metrics.increment("tier.deopts");
+        if (++profile.deopts < deoptLimit) return;
+
+        profile.compiled = null;
+        profile.deopts = 0;
+        profile.calls = 0;
+        interpreter.metrics.increment("tier.invalidations");
+        if (++profile.recompiles <= recompileLimit) {
+            profile.queued = false;
+        }
+    }
+
+    void report(Metrics metrics) {
+        metrics.set("tier.threshold.function", functionThreshold);
+        metrics.set("tier.threshold.loop", loopThreshold);
+        metrics.set("tier.threshold.deopt", deoptLimit);
+    }
+}
@@ -0,0 +1,379 @@
+package lox;
+
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+class TypeInference implements Expr.Visitor<TypeInference.Type>, Stmt.Visitor<Void> {
+    enum Type {
+        NUMBER("number"),
+        STRING("string"),
+        BOOLEAN("boolean"),
+        NIL("nil"),
+        ANY("any");
+
+        final String description;
+
+        Type(String description) {
+            this.description = description;
+        }
+
+        Type join(Type other) {
+            if (other == null || other == this) return this;
+            return ANY;
+        }
+    }
+
+    private static final Object THIS = new Object();
+    private static final Object SUPER = new Object();
+
+    private final Map<Expr, Type> types = new IdentityHashMap<>();
+    private final Map<Object, Type> declared = new IdentityHashMap<>();
+    private final java.util.Set<Object> capturedAssignments = java.util.Collections.newSetFromMap(new IdentityHashMap<>());
+    private final Deque<Map<String, Object>> scopes = new ArrayDeque<>();
+    private final Deque<List<Map<Object, Type>>> breaks = new ArrayDeque<>();
+    private Map<Object, Type> state = new IdentityHashMap<>();
+    private boolean changed;
+
+    void infer(List<Stmt> statements) {
+        do {
+            changed = false;
+            types.clear();
+            declared.clear();
+            scopes.clear();
+            breaks.clear();
+            state = new IdentityHashMap<>();
+            statements(statements);
+        } while (changed);
+    }
+
+    Type typeOf(Expr expr) {
+        Type type = types.get(expr);
+        return type == null ? Type.ANY : type;
+    }
+
+    boolean isNumber(Expr expr) {
+        return types.get(expr) == Type.NUMBER;
+    }
+
+    void dump(PrintStream out) {
+        Map<Type, Integer> coverage = new HashMap<>();
+        List<String> lines = new ArrayList<>();
+        AstPrinter printer = new AstPrinter();
+        for (Map.Entry<Expr, Type> entry : types.entrySet()) {
+            Token token = tokenOf(entry.getKey());
+            if (token == null) continue;
+            coverage.merge(entry.getValue(), 1, Integer::sum);
+            lines.add(String.format("%5d %-8s %s", token.line, entry.getValue().description, printer.print(entry.getKey())));
+        }
+        lines.sort(null);
+        for (String line : lines) {
+            out.println(line);
+        }
+
+        int total = lines.size();
+        int typed = total - coverage.getOrDefault(Type.ANY, 0);
+        out.println(typed + " of " + total + " expressions typed.");
+    }
+
+    private static Token tokenOf(Expr expr) {
+        if (expr instanceof Expr.Binary binary) return binary.operator;
+        if (expr instanceof Expr.Unary unary) return unary.operator;
+        if (expr instanceof Expr.Logical logical) return logical.operator;
+        if (expr instanceof Expr.Variable variable) return variable.name;
+        if (expr instanceof Expr.Assign assign) return assign.name;
+        return null;
+    }
+
+    private void statements(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            statement.accept(this);
+        }
+    }
+
+    private Type infer(Expr expr) {
+        Type type = expr.accept(this);
+        types.merge(expr, type, Type::join);
+        return type;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        scopes.push(new HashMap<>());
+        statements(stmt.statements);
+        scopes.pop();
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        declare(stmt.name.lexeme, stmt, Type.ANY);
+        if (stmt.superclass != null) {
+            infer(stmt.superclass);
+            scopes.push(new HashMap<>());
+            scopes.peek().put("super", SUPER);
+        }
+        scopes.push(new HashMap<>());
+        scopes.peek().put("this", THIS);
+        for (Stmt.Function method : stmt.methods) function(method.params, method.body);
+        for (Stmt.Function method : stmt.staticMethods) function(method.params, method.body);
+        for (Stmt.Function getter : stmt.getters) function(getter.params, getter.body);
+        for (Stmt.Function getter : stmt.staticGetters) function(getter.params, getter.body);
+        scopes.pop();
+        if (stmt.superclass != null) scopes.pop();
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        infer(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        declare(stmt.name.lexeme, stmt, Type.ANY);
+        function(stmt.params, stmt.body);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        infer(stmt.condition);
+        Map<Object, Type> before = copy(state);
+        stmt.thenBranch.accept(this);
+        Map<Object, Type> afterThen = state;
+        state = before;
+        if (stmt.elseBranch != null) stmt.elseBranch.accept(this);
+        state = join(afterThen, state);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        infer(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.value != null) infer(stmt.value);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        Type type = stmt.initializer == null ? Type.ANY : infer(stmt.initializer);
+        declare(stmt.name.lexeme, stmt, type);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        Map<Object, Type> head = copy(state);
+        while (true) {
+            state = copy(head);
+            infer(stmt.condition);
+            Map<Object, Type> exit = copy(state);
+
+            breaks.push(new ArrayList<>());
+            stmt.body.accept(this);
+            List<Map<Object, Type>> exits = breaks.pop();
+
+            Map<Object, Type> next = join(head, state);
+            if (next.equals(head)) {
+                state = exit;
+                for (Map<Object, Type> broken : exits) {
+                    state = join(state, broken);
+                }
+                return null;
+            }
+            head = next;
+        }
+    }
+
+    @Override
+    public Void visitBreakStmt(Stmt.Break stmt) {
+        if (!breaks.isEmpty()) breaks.peek().add(copy(state));
+        return null;
+    }
+
+    @Override
+    public Type visitAssignExpr(Expr.Assign expr) {
+        Type type = infer(expr.value);
+        Object declaration = lookUp(expr.name.lexeme);
+        if (declaration == null) return type;
+
+        if (!state.containsKey(declaration)) {
+            if (capturedAssignments.add(declaration)) changed = true;
+            return type;
+        }
+        state.put(declaration, capturedAssignments.contains(declaration) ? Type.ANY : type);
+        return type;
+    }
+
+    @Override
+    public Type visitBinaryExpr(Expr.Binary expr) {
+        Type left = infer(expr.left);
+        Type right = infer(expr.right);
+
+        switch (expr.operator.type) {
+            case PLUS:
+                if (left == Type.NUMBER && right == Type.NUMBER) return Type.NUMBER;
+                if (left == Type.STRING && right == Type.STRING) return Type.STRING;
+                return Type.ANY;
+            case MINUS:
+            case STAR:
+            case SLASH:
+                return Type.NUMBER;
+            case GREATER:
+            case GREATER_EQUAL:
+            case LESS:
+            case LESS_EQUAL:
+            case BANG_EQUAL:
+            case EQUAL_EQUAL:
+                return Type.BOOLEAN;
+            default:
+                return Type.ANY;
+        }
+    }
+
+    @Override
+    public Type visitGroupingExpr(Expr.Grouping expr) {
+        return infer(expr.expression);
+    }
+
+    @Override
+    public Type visitLiteralExpr(Expr.Literal expr) {
+        if (expr.value instanceof Double) return Type.NUMBER;
+        if (expr.value instanceof String) return Type.STRING;
+        if (expr.value instanceof Boolean) return Type.BOOLEAN;
+        if (expr.value == null) return Type.NIL;
+        return Type.ANY;
+    }
+
+    @Override
+    public Type visitLogicalExpr(Expr.Logical expr) {
+        Type left = infer(expr.left);
+        Map<Object, Type> before = copy(state);
+        Type right = infer(expr.right);
+        state = join(before, state);
+        return left.join(right);
+    }
+
+    @Override
+    public Type visitCallExpr(Expr.Call expr) {
+        infer(expr.callee);
+        for (Expr argument : expr.arguments) {
+            infer(argument);
+        }
+        return Type.ANY;
+    }
+
+    @Override
+    public Type visitUnaryExpr(Expr.Unary expr) {
+        infer(expr.right);
+        switch (expr.operator.type) {
+            case MINUS:
+                return Type.NUMBER;
+            case BANG:
+                return Type.BOOLEAN;
+            default:
+                return Type.ANY;
+        }
+    }
+
+    @Override
+    public Type visitTernaryExpr(Expr.Ternary expr) {
+        Type left = infer(expr.left);
+        Type right = infer(expr.right);
+        infer(expr.Condition);
+        return left.join(right);
+    }
+
+    @Override
+    public Type visitVariableExpr(Expr.Variable expr) {
+        Object declaration = lookUp(expr.name.lexeme);
+        if (declaration == null) return Type.ANY;
+        Type type = state.get(declaration);
+        return type == null ? Type.ANY : type;
+    }
+
+    @Override
+    public Type visitGetExpr(Expr.Get expr) {
+        infer(expr.object);
+        return Type.ANY;
+    }
+
+    @Override
+    public Type visitLambdaExpr(Expr.Lambda expr) {
+        function(expr.params, expr.body);
+        return Type.ANY;
+    }
+
+    @Override
+    public Type visitSetExpr(Expr.Set expr) {
+        infer(expr.object);
+        infer(expr.value);
+        return Type.ANY;
+    }
+
+    @Override
+    public Type visitThisExpr(Expr.This expr) {
+        return Type.ANY;
+    }
+
+    @Override
+    public Type visitSuperExpr(Expr.Super expr) {
+        return Type.ANY;
+    }
+
+    private void function(List<Token> params, List<Stmt> body) {
+        if (LazyBody.isUnparsed(body)) return;
+        Map<Object, Type> enclosing = state;
+        Deque<List<Map<Object, Type>>> enclosingBreaks = new ArrayDeque<>(breaks);
+        breaks.clear();
+        state = new IdentityHashMap<>();
+        scopes.push(new HashMap<>());
+        for (Token param : params) {
+            declare(param.lexeme, param, Type.ANY);
+        }
+        statements(body);
+        scopes.pop();
+        state = enclosing;
+        breaks.addAll(enclosingBreaks);
+    }
+
+    private void declare(String name, Object declaration, Type type) {
+        if (scopes.isEmpty()) return;
+        scopes.peek().put(name, declaration);
+        state.put(declaration, capturedAssignments.contains(declaration) ? Type.ANY : type);
+        declared.put(declaration, type);
+    }
+
+    private Object lookUp(String name) {
+        for (Map<String, Object> scope : scopes) {
+            Object declaration = scope.get(name);
+            if (declaration != null) return declaration;
+        }
+        return null;
+    }
+
+    private static Map<Object, Type> copy(Map<Object, Type> state) {
+        return new IdentityHashMap<>(state);
+    }
+
+    private static Map<Object, Type> join(Map<Object, Type> a, Map<Object, Type> b) {
+        Map<Object, Type> joined = new IdentityHashMap<>(a);
+        for (Map.Entry<Object, Type> entry : b.entrySet()) {
+            joined.merge(entry.getKey(), entry.getValue(), Type::join);
+        }
+        return joined;
+    }
+}
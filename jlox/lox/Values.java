@@ -0,0 +1,23 @@
+package lox;
+
+final class Values {
+    private Values() {}
+
+    static boolean isEqual(Object a, Object b) {
+        if (a == null && b == null) return true;
+        if (a == null || b == null) return false;
+        if (a instanceof Rope) a = a.toString();
+        if (b instanceof Rope) b = b.toString();
+        return a.equals(b);
+    }
+
+    static Object add(Object left, Object right, Token operator) {
+        if (left instanceof Double && right instanceof Double) {
+            return (double) left + (double) right;
+        }
+        if (left instanceof CharSequence && right instanceof CharSequence) {
+            return Rope.concat((CharSequence) left, (CharSequence) right);
+        }
+        throw new RuntimeError(operator, "Operands must be two numbers or one must be a string.");
+    }
+}
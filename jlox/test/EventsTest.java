@@ -0,0 +1,65 @@
+package lox;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+class EventsTest {
+    private static final String SOURCE = String.join("\n",
+        "fun spin(n) {",
+        "  var i = 0;",
+        "  while (i < n) i = i + 1;",
+        "  return i;",
+        "}",
+        "class Counter {",
+        "  init(n) { this.n = spin(n); }",
+        "  count() { return spin(this.n) + 0; }",
+        "}",
+        "Counter(100000).count();");
+
+    public static void main(String[] args) throws Exception {
+        Path output = Files.createTempFile("lox", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("lox.FunctionCall");
+            recording.enable("lox.InstanceCreation");
+            recording.start();
+            run(SOURCE);
+            recording.stop();
+            recording.dump(output);
+        }
+
+        List<RecordedEvent> events = RecordingFile.readAllEvents(output);
+        Files.delete(output);
+
+        expect(events, "lox.FunctionCall", "function", "spin");
+        expect(events, "lox.FunctionCall", "function", "Counter.init");
+        expect(events, "lox.FunctionCall", "function", "Counter.count");
+        expect(events, "lox.InstanceCreation", "className", "Counter");
+        System.out.println("EventsTest passed.");
+    }
+
+    private static void run(String source) {
+        Interpreter interpreter = new Interpreter();
+        Resolver resolver = new Resolver(interpreter);
+        List<Stmt> statements = new Parser(new Scanner(source).scanTokens()).parse();
+        resolver.resolve(statements);
+        resolver.markConstantGlobals();
+        interpreter.interpret(statements);
+        if (Lox.hadError || Lox.hadRuntimeError) fail("script did not run cleanly");
+    }
+
+    private static void expect(List<RecordedEvent> events, String type, String field, String value) {
+        for (RecordedEvent event : events) {
+            if (event.getEventType().getName().equals(type) && value.equals(event.getString(field))) return;
+        }
+        fail("no " + type + " event with " + field + " = " + value);
+    }
+
+    private static void fail(String message) {
+        System.err.println("EventsTest failed: " + message);
+        System.exit(1);
+    }
+}
@@ -26,7 +26,7 @@ public class GenerateAst {
                 "Ternary       : Expr Condition, Expr left, Expr right, Token operator",
                 "Variable      : Token name",
                 "Get           : Expr object, Token name",
-                "Lambda        : List<Token> params, List<Stmt> body",
+                "Lambda        : Token keyword, List<Token> params, List<Stmt> body",
                 "Set           : Expr object, Token name, Expr value",
                 "This          : Token keyword",
                 "Super         : Token keyword, Token method"